@@ -0,0 +1,66 @@
+package com.otp.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.UUID;
+
+import com.otp.dao.ConnectionPool;
+
+/**
+ * In-memory H2 в режиме совместимости с PostgreSQL для бенчмарков DAO.
+ * Схема повторяет таблицы users и otp_codes из init.sql без специфичных для PostgreSQL частей.
+ */
+final class BenchmarkDatabase {
+    private static final String[] SCHEMA = {
+        "CREATE TABLE users (" +
+            "id SERIAL PRIMARY KEY, " +
+            "username VARCHAR(50) NOT NULL UNIQUE, " +
+            "password_hash VARCHAR(255) NOT NULL, " +
+            "role VARCHAR(10) NOT NULL, " +
+            "email VARCHAR(100), " +
+            "phone VARCHAR(20), " +
+            "telegram_chat_id BIGINT, " +
+            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)",
+        "CREATE TABLE otp_codes (" +
+            "id SERIAL PRIMARY KEY, " +
+            "user_id INTEGER NOT NULL REFERENCES users(id) ON DELETE CASCADE, " +
+            "operation_id VARCHAR(100) NOT NULL UNIQUE, " +
+            "code VARCHAR(8) NOT NULL, " +
+            "status VARCHAR(10) NOT NULL DEFAULT 'ACTIVE', " +
+            "delivery_method VARCHAR(20) NOT NULL, " +
+            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+            "expires_at TIMESTAMP NOT NULL, " +
+            "used_at TIMESTAMP, " +
+            "delivery_status VARCHAR(12) NOT NULL DEFAULT 'PENDING', " +
+            "delivery_attempts INTEGER NOT NULL DEFAULT 0, " +
+            "delivery_error VARCHAR(500), " +
+            "delivered_at TIMESTAMP, " +
+            "failed_attempts INTEGER NOT NULL DEFAULT 0)",
+        "CREATE INDEX idx_otp_codes_user_id ON otp_codes(user_id)"
+    };
+
+    private BenchmarkDatabase() {
+    }
+
+    /**
+     * Новая пустая база со схемой; у каждого вызова своё имя, чтобы форки и состояния не пересекались
+     */
+    static ConnectionPool create() throws SQLException {
+        Properties config = new Properties();
+        config.setProperty("db.url", "jdbc:h2:mem:bench-" + UUID.randomUUID() + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        config.setProperty("db.username", "sa");
+        config.setProperty("db.password", "");
+        config.setProperty("db.pool.min_size", "1");
+        config.setProperty("db.pool.max_size", "16");
+        ConnectionPool pool = new ConnectionPool("bench", config, "db.pool");
+        try (Connection connection = pool.getConnection();
+             Statement stmt = connection.createStatement()) {
+            for (String ddl : SCHEMA) {
+                stmt.execute(ddl);
+            }
+        }
+        return pool;
+    }
+}
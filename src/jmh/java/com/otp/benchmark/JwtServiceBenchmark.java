@@ -0,0 +1,86 @@
+package com.otp.benchmark;
+
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import com.otp.dao.ConnectionPool;
+import com.otp.dao.UserCache;
+import com.otp.dao.UserDao;
+import com.otp.model.User;
+import com.otp.service.JwtService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Выпуск и проверка JWT в режимах claims и database (с кэшем пользователей и без него)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtServiceBenchmark {
+    private static final String SECRET = "benchmark-secret-key-that-is-long-enough-for-hs512-signatures-0123456789";
+
+    private ConnectionPool pool;
+    private JwtService claimsService;
+    private JwtService databaseService;
+    private JwtService cachedDatabaseService;
+    private User user;
+    private String token;
+
+    @Setup
+    public void setUp() throws SQLException {
+        pool = BenchmarkDatabase.create();
+
+        user = new User();
+        user.setUsername("bench");
+        user.setPasswordHash("x");
+        user.setRole(User.Role.USER);
+        UserDao userDao = new UserDao(pool);
+        userDao.save(user);
+
+        claimsService = new JwtService(SECRET, 3600, null, JwtService.AuthMode.CLAIMS, null);
+        databaseService = new JwtService(SECRET, 3600, userDao, JwtService.AuthMode.DATABASE, null);
+        cachedDatabaseService = new JwtService(SECRET, 3600, new UserDao(pool, new UserCache(new Properties())),
+            JwtService.AuthMode.DATABASE, null);
+        token = claimsService.generateToken(user);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return claimsService.generateToken(user);
+    }
+
+    @Benchmark
+    public User validateToken_claims() throws SQLException {
+        return claimsService.validateToken(token);
+    }
+
+    @Benchmark
+    public User validateToken_database() throws SQLException {
+        return databaseService.validateToken(token);
+    }
+
+    @Benchmark
+    public User validateToken_databaseCached() throws SQLException {
+        return cachedDatabaseService.validateToken(token);
+    }
+}
@@ -0,0 +1,104 @@
+package com.otp.benchmark;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.otp.dao.ActiveOtpCache;
+import com.otp.dao.ConnectionPool;
+import com.otp.dao.OtpCodeDao;
+import com.otp.dao.UserDao;
+import com.otp.model.OtpCode;
+import com.otp.model.User;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Чтение кодов через OtpCodeDao (запрос + маппинг строки в OtpCode) на H2 в режиме PostgreSQL.
+ * Абсолютные значения не равны PostgreSQL, но относительные изменения маппинга и SQL видны.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OtpCodeDaoBenchmark {
+
+    @Param({"1000"})
+    public int codeCount;
+
+    @Param({"20"})
+    public int userCodesLimit;
+
+    private ConnectionPool pool;
+    private OtpCodeDao uncachedDao;
+    private OtpCodeDao cachedDao;
+    private Long userId;
+
+    @Setup
+    public void setUp() throws SQLException {
+        pool = BenchmarkDatabase.create();
+
+        User user = new User();
+        user.setUsername("bench");
+        user.setPasswordHash("x");
+        user.setRole(User.Role.USER);
+        new UserDao(pool).save(user);
+        userId = user.getId();
+
+        uncachedDao = new OtpCodeDao(pool);
+        LocalDateTime expiresAt = LocalDateTime.now().plusHours(1);
+        for (int i = 0; i < codeCount; i++) {
+            uncachedDao.save(new OtpCode(userId, operationId(i), "123456", OtpCode.Status.ACTIVE,
+                OtpCode.DeliveryMethod.FILE, LocalDateTime.now(), expiresAt));
+        }
+
+        Properties cacheConfig = new Properties();
+        cacheConfig.setProperty("otp.cache.max_size", Integer.toString(codeCount));
+        cachedDao = new OtpCodeDao(pool, new ActiveOtpCache(cacheConfig));
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+    }
+
+    private String randomOperationId() {
+        return operationId(ThreadLocalRandom.current().nextInt(codeCount));
+    }
+
+    private static String operationId(int i) {
+        return "bench-op-" + i;
+    }
+
+    @Benchmark
+    public Optional<OtpCode> findByOperationId() throws SQLException {
+        return uncachedDao.findByOperationId(randomOperationId());
+    }
+
+    @Benchmark
+    public Optional<OtpCode> findByOperationId_cached() throws SQLException {
+        return cachedDao.findByOperationId(randomOperationId());
+    }
+
+    @Benchmark
+    public List<OtpCode> findByUserId() throws SQLException {
+        return uncachedDao.findByUserId(userId, userCodesLimit);
+    }
+}
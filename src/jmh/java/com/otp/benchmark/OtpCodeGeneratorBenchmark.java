@@ -0,0 +1,96 @@
+package com.otp.benchmark;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.otp.service.OtpCodeGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Прежний генератор (общий SecureRandom, nextInt(10) на цифру, StringBuilder)
+ * против OtpCodeGenerator при 1, 4 и максимальном числе потоков
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OtpCodeGeneratorBenchmark {
+
+    @Param({"6"})
+    public int length;
+
+    private SecureRandom secureRandom;
+    private OtpCodeGenerator numericGenerator;
+    private OtpCodeGenerator base32Generator;
+
+    @Setup
+    public void setUp() {
+        secureRandom = new SecureRandom();
+        numericGenerator = new OtpCodeGenerator(OtpCodeGenerator.Alphabet.NUMERIC);
+        base32Generator = new OtpCodeGenerator(OtpCodeGenerator.Alphabet.CROCKFORD_BASE32);
+    }
+
+    private String legacyGenerate() {
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            code.append(secureRandom.nextInt(10));
+        }
+        return code.toString();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String legacy_1t() {
+        return legacyGenerate();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String legacy_4t() {
+        return legacyGenerate();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String legacy_max() {
+        return legacyGenerate();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String numeric_1t() {
+        return numericGenerator.generate(length);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String numeric_4t() {
+        return numericGenerator.generate(length);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String numeric_max() {
+        return numericGenerator.generate(length);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String crockford_max() {
+        return base32Generator.generate(length);
+    }
+}
@@ -0,0 +1,86 @@
+package com.otp.benchmark;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import com.otp.service.PasswordEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Стоимость хеширования и проверки пароля (путь регистрации и логина) по алгоритмам
+ * и стоимости; хеширование в потоке бенчмарка, без пула. Подбор стоимости под целевую
+ * задержку — PasswordHashCalibrator
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PasswordEncoderBenchmark {
+    private static final String PASSWORD = "correct horse battery staple";
+
+    @Param({"argon2", "bcrypt", "sha256"})
+    public String algorithm;
+
+    // Память Argon2, КиБ
+    @Param({"19456"})
+    public int argon2MemoryKb;
+
+    @Param({"2"})
+    public int argon2Iterations;
+
+    @Param({"10", "12"})
+    public int bcryptStrength;
+
+    private PasswordEncoder passwordEncoder;
+    private String encoded;
+
+    @Setup
+    public void setUp() {
+        passwordEncoder = new PasswordEncoder(config(algorithm, argon2MemoryKb, argon2Iterations, bcryptStrength));
+        encoded = passwordEncoder.encode(PASSWORD);
+    }
+
+    @TearDown
+    public void tearDown() {
+        passwordEncoder.close();
+    }
+
+    static Properties config(String algorithm, int argon2MemoryKb, int argon2Iterations, int bcryptStrength) {
+        Properties config = new Properties();
+        config.setProperty("password.hash.algorithm", algorithm);
+        config.setProperty("password.argon2.memory_kb", Integer.toString(argon2MemoryKb));
+        config.setProperty("password.argon2.iterations", Integer.toString(argon2Iterations));
+        config.setProperty("password.bcrypt.strength", Integer.toString(bcryptStrength));
+        config.setProperty("password.hash.threads", "0");
+        return config;
+    }
+
+    @Benchmark
+    public String encode() {
+        return passwordEncoder.encode(PASSWORD);
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return passwordEncoder.matches(PASSWORD, encoded);
+    }
+
+    @Benchmark
+    public boolean matches_wrongPassword() {
+        return passwordEncoder.matches("wrong password", encoded);
+    }
+}
@@ -0,0 +1,75 @@
+package com.otp.benchmark;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import com.otp.service.PasswordEncoder;
+
+/**
+ * Подбор стоимости хеширования под целевую задержку проверки пароля на этой машине.
+ * Для bcrypt перебирается strength, для Argon2id — iterations при заданной памяти
+ * (сначала память, потом проходы, как советует RFC 9106). Печатает строки для
+ * application.properties. Запуск: ./gradlew calibratePasswordHash -PtargetMs=250 [-PmemoryKb=19456]
+ */
+public class PasswordHashCalibrator {
+    private static final String PASSWORD = "correct horse battery staple";
+    private static final int WARMUP = 3;
+    private static final int SAMPLES = 7;
+
+    public static void main(String[] args) {
+        double targetMs = args.length > 0 ? Double.parseDouble(args[0]) : 250;
+        int memoryKb = args.length > 1 ? Integer.parseInt(args[1]) : 19456;
+        System.out.printf("Target verify latency: %.0f ms, cores: %d%n", targetMs, Runtime.getRuntime().availableProcessors());
+
+        int bestStrength = 4;
+        for (int strength = 4; strength <= 16; strength++) {
+            double ms = measure(PasswordEncoderBenchmark.config("bcrypt", memoryKb, 1, strength));
+            System.out.printf("  bcrypt strength=%d: %.1f ms%n", strength, ms);
+            if (ms > targetMs) {
+                break;
+            }
+            bestStrength = strength;
+        }
+
+        int bestIterations = 0;
+        for (int iterations = 1; iterations <= 32; iterations++) {
+            double ms = measure(PasswordEncoderBenchmark.config("argon2", memoryKb, iterations, 10));
+            System.out.printf("  argon2id m=%d KiB t=%d: %.1f ms%n", memoryKb, iterations, ms);
+            if (ms > targetMs) {
+                break;
+            }
+            bestIterations = iterations;
+        }
+        if (bestIterations == 0) {
+            System.out.println("Argon2id with t=1 already exceeds the target; lower -PmemoryKb");
+            bestIterations = 1;
+        }
+
+        System.out.println();
+        System.out.println("# Recommended settings (verify latency <= target, single thread)");
+        System.out.println("password.bcrypt.strength=" + bestStrength);
+        System.out.println("password.argon2.memory_kb=" + memoryKb);
+        System.out.println("password.argon2.iterations=" + bestIterations);
+        System.out.println("# Peak logins/s per hashing thread ~ 1000 / target_ms; size password.hash.threads accordingly");
+    }
+
+    /**
+     * Медиана времени проверки пароля, мс
+     */
+    private static double measure(Properties config) {
+        try (PasswordEncoder encoder = new PasswordEncoder(config)) {
+            String encoded = encoder.encode(PASSWORD);
+            for (int i = 0; i < WARMUP; i++) {
+                encoder.matches(PASSWORD, encoded);
+            }
+            double[] samples = new double[SAMPLES];
+            for (int i = 0; i < SAMPLES; i++) {
+                long start = System.nanoTime();
+                encoder.matches(PASSWORD, encoded);
+                samples[i] = (System.nanoTime() - start) / 1e6;
+            }
+            Arrays.sort(samples);
+            return samples[SAMPLES / 2];
+        }
+    }
+}
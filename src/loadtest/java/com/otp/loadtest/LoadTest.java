@@ -0,0 +1,357 @@
+package com.otp.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Нагрузочный тест HTTP API: регистрация и логин пользователей, затем поток сценариев
+ * generate (канал FILE) → чтение кода из файла → validate с постоянной частотой запуска
+ * (открытая модель). Задержка первого шага и всего сценария считается от запланированного
+ * момента старта, поэтому отставание генератора нагрузки не прячет задержки сервиса
+ * (coordinated omission). Результат — перцентили по маршрутам и JSON-отчёт.
+ *
+ * Запуск: ./gradlew loadTest -PloadTestArgs="--rate=100 --duration=60"
+ */
+public class LoadTest {
+    private static final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(2);
+    private static final List<String> SETUP_ROUTES = List.of("register", "login");
+    private static final List<String> FLOW_ROUTES = List.of("generate", "delivery", "validate", "flow");
+
+    private final Map<String, String> options;
+    private final String baseUrl;
+    private final double rate;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final int userCount;
+    private final long deliveryTimeoutMs;
+    private final int maxInFlight;
+    private final String password;
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+    private final HttpClient httpClient;
+    private final Map<String, RouteStats> routes = new ConcurrentHashMap<>();
+    private final BlockingQueue<TestUser> idleUsers = new LinkedBlockingQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder flowsScheduled = new LongAdder();
+    private final LongAdder flowsDropped = new LongAdder();
+    private volatile boolean measuring;
+
+    private OtpFileTailer tailer;
+
+    public static void main(String[] args) throws Exception {
+        new LoadTest(parseArgs(args)).run();
+    }
+
+    public LoadTest(Map<String, String> options) {
+        this.options = options;
+        this.baseUrl = options.getOrDefault("url", "http://localhost:8080");
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "50"));
+        this.durationSeconds = Integer.parseInt(options.getOrDefault("duration", "60"));
+        this.warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        this.userCount = Integer.parseInt(options.getOrDefault("users", "200"));
+        this.deliveryTimeoutMs = Long.parseLong(options.getOrDefault("delivery-timeout-ms", "10000"));
+        this.maxInFlight = Integer.parseInt(options.getOrDefault("max-in-flight", "10000"));
+        this.password = options.getOrDefault("password", "LoadTest123!");
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+    }
+
+    private void run() throws Exception {
+        tailer = new OtpFileTailer(Path.of(options.getOrDefault("otp-file", "./otp-codes.txt")));
+        try {
+            setUpUsers();
+            Instant startedAt = Instant.now();
+            long elapsedNanos = runOpenModel();
+            writeReport(startedAt, elapsedNanos);
+        } finally {
+            tailer.close();
+        }
+    }
+
+    /**
+     * Регистрация и логин пользователей (замкнутая модель, не более 32 запросов одновременно)
+     */
+    private void setUpUsers() throws InterruptedException {
+        System.out.printf("Registering %d users...%n", userCount);
+        measuring = true;
+        Semaphore parallelism = new Semaphore(32);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < userCount; i++) {
+                String username = "lt_" + runId + "_" + i;
+                parallelism.acquire();
+                executor.execute(() -> {
+                    try {
+                        registerAndLogin(username);
+                    } finally {
+                        parallelism.release();
+                    }
+                });
+            }
+        }
+        measuring = false;
+        if (idleUsers.isEmpty()) {
+            throw new IllegalStateException("No users could be registered and logged in");
+        }
+        System.out.printf("%d users ready%n", idleUsers.size());
+    }
+
+    private void registerAndLogin(String username) {
+        try {
+            long start = System.nanoTime();
+            HttpResponse<String> registered = post("/api/auth/register", null,
+                Map.of("username", username, "password", password, "role", "USER"));
+            record("register", start, registered.statusCode() == 201);
+            if (registered.statusCode() != 201) {
+                return;
+            }
+            long userId = objectMapper.readTree(registered.body()).path("id").asLong();
+
+            start = System.nanoTime();
+            HttpResponse<String> loggedIn = post("/api/auth/login", null, Map.of("username", username, "password", password));
+            record("login", start, loggedIn.statusCode() == 200);
+            if (loggedIn.statusCode() == 200) {
+                idleUsers.add(new TestUser(userId, objectMapper.readTree(loggedIn.body()).path("token").asText()));
+            }
+        } catch (Exception e) {
+            routeStats("register").errors.increment();
+        }
+    }
+
+    /**
+     * Сценарии запускаются по расписанию t0 + i * период, не дожидаясь завершения предыдущих
+     */
+    private long runOpenModel() {
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long start = System.nanoTime();
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(durationSeconds);
+        System.out.printf("Running %.1f flows/s: %d s warmup, %d s measured%n", rate, warmupSeconds, durationSeconds);
+
+        long measuredStart = 0;
+        for (long i = 0; ; i++) {
+            long intended = start + i * periodNanos;
+            if (intended >= end) {
+                break;
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (!measuring && intended >= warmupEnd) {
+                // Всё, что записано во время прогрева, отбрасываем
+                FLOW_ROUTES.forEach(routes::remove);
+                measuring = true;
+                measuredStart = System.nanoTime();
+            }
+            if (measuring) {
+                flowsScheduled.increment();
+            }
+            if (inFlight.incrementAndGet() > maxInFlight) {
+                inFlight.decrementAndGet();
+                flowsDropped.increment();
+                continue;
+            }
+            long operation = i;
+            Thread.startVirtualThread(() -> {
+                try {
+                    runFlow(intended, operation);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+
+        // Дожидаемся запущенных сценариев
+        long drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deliveryTimeoutMs * 2);
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        return measuredStart == 0 ? 0 : System.nanoTime() - measuredStart;
+    }
+
+    private void runFlow(long intended, long operation) {
+        TestUser user;
+        try {
+            // Ожидание свободного пользователя входит в задержку сценария
+            user = idleUsers.take();
+        } catch (InterruptedException e) {
+            return;
+        }
+        try {
+            String operationId = "lt-" + runId + "-" + operation;
+            tailer.reset(user.id());
+
+            HttpResponse<String> generated = post("/api/user/otp/generate", user.token(),
+                Map.of("operationId", operationId, "deliveryMethod", "FILE"));
+            boolean ok = generated.statusCode() == 200;
+            record("generate", intended, ok);
+            if (!ok) {
+                record("flow", intended, false);
+                return;
+            }
+
+            long deliveryStart = System.nanoTime();
+            String code = tailer.awaitCode(user.id(), deliveryTimeoutMs);
+            record("delivery", deliveryStart, code != null);
+            if (code == null) {
+                record("flow", intended, false);
+                return;
+            }
+
+            long validateStart = System.nanoTime();
+            HttpResponse<String> validated = post("/api/user/otp/validate", user.token(),
+                Map.of("operationId", operationId, "code", code));
+            ok = validated.statusCode() == 200 && objectMapper.readTree(validated.body()).path("valid").asBoolean();
+            record("validate", validateStart, ok);
+            record("flow", intended, ok);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            record("flow", intended, false);
+        } finally {
+            idleUsers.add(user);
+        }
+    }
+
+    private HttpResponse<String> post(String path, String token, Map<String, String> body) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+            .timeout(Duration.ofSeconds(30))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void record(String route, long startNanos, boolean ok) {
+        if (!measuring) {
+            return;
+        }
+        RouteStats stats = routeStats(route);
+        if (ok) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+            stats.latency.recordValue(Math.min(Math.max(micros, 1), HIGHEST_TRACKABLE_MICROS));
+        } else {
+            stats.errors.increment();
+        }
+    }
+
+    private RouteStats routeStats(String route) {
+        return routes.computeIfAbsent(route, name -> new RouteStats());
+    }
+
+    private void writeReport(Instant startedAt, long elapsedNanos) throws Exception {
+        double elapsedSeconds = elapsedNanos / 1e9;
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("startedAt", startedAt.toString());
+        report.put("baseUrl", baseUrl);
+        report.put("targetRatePerSecond", rate);
+        report.put("durationSeconds", durationSeconds);
+        report.put("warmupSeconds", warmupSeconds);
+        report.put("users", userCount);
+        report.put("flowsScheduled", flowsScheduled.sum());
+        report.put("flowsDropped", flowsDropped.sum());
+
+        Map<String, Object> routeReport = new LinkedHashMap<>();
+        for (String route : SETUP_ROUTES) {
+            RouteStats stats = routes.get(route);
+            if (stats != null) {
+                routeReport.put(route, stats.toReport(0));
+            }
+        }
+        for (String route : FLOW_ROUTES) {
+            RouteStats stats = routes.get(route);
+            if (stats != null) {
+                routeReport.put(route, stats.toReport(elapsedSeconds));
+            }
+        }
+        report.put("routes", routeReport);
+
+        Path path = Path.of(options.getOrDefault("report", "build/loadtest/report.json"));
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        objectMapper.writeValue(path.toFile(), report);
+
+        System.out.printf("%n%-10s %9s %7s %9s %9s %9s %9s %9s%n", "route", "count", "errors", "rps", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        routeReport.forEach((route, value) -> {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> r = (Map<String, Object>) value;
+            System.out.printf("%-10s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n", route, r.get("count"), r.get("errors"),
+                r.get("throughputPerSecond"), r.get("p50Ms"), r.get("p99Ms"), r.get("p999Ms"), r.get("maxMs"));
+        });
+        System.out.printf("%nReport written to %s%n", path.toAbsolutePath());
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --key=value, got " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    private record TestUser(long id, String token) {
+    }
+
+    private static final class RouteStats {
+        private final Histogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+        private final LongAdder errors = new LongAdder();
+
+        private Map<String, Object> toReport(double elapsedSeconds) {
+            Map<String, Object> report = new LinkedHashMap<>();
+            long count = latency.getTotalCount();
+            report.put("count", count);
+            report.put("errors", errors.sum());
+            report.put("throughputPerSecond", elapsedSeconds > 0 ? count / elapsedSeconds : 0.0);
+            report.put("meanMs", latency.getMean() / 1000.0);
+            report.put("p50Ms", latency.getValueAtPercentile(50) / 1000.0);
+            report.put("p90Ms", latency.getValueAtPercentile(90) / 1000.0);
+            report.put("p99Ms", latency.getValueAtPercentile(99) / 1000.0);
+            report.put("p999Ms", latency.getValueAtPercentile(99.9) / 1000.0);
+            report.put("maxMs", latency.getMaxValue() / 1000.0);
+            List<Object> percentiles = new ArrayList<>();
+            for (double p : new double[] {50, 75, 90, 95, 99, 99.9, 99.99}) {
+                percentiles.add(Map.of("percentile", p, "ms", latency.getValueAtPercentile(p) / 1000.0));
+            }
+            report.put("percentiles", percentiles);
+            return report;
+        }
+    }
+}
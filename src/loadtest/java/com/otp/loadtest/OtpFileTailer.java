@@ -0,0 +1,98 @@
+package com.otp.loadtest;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Чтение кодов, которые сервис дописывает в файл канала FILE (строки userId,code,timestamp).
+ * Читает только новые строки с момента запуска; при ротации файла начинает его сначала.
+ */
+public class OtpFileTailer implements AutoCloseable {
+    private final Path path;
+    private final Map<Long, BlockingQueue<String>> codesByUser = new ConcurrentHashMap<>();
+    private final Thread reader;
+    private volatile boolean closed;
+
+    public OtpFileTailer(Path path) throws IOException {
+        this.path = path;
+        long start = Files.exists(path) ? Files.size(path) : 0;
+        this.reader = Thread.ofPlatform().daemon().name("otp-file-tailer").start(() -> readLoop(start));
+    }
+
+    /**
+     * Сбросить ранее прочитанные коды пользователя перед новой выдачей
+     */
+    public void reset(long userId) {
+        queue(userId).clear();
+    }
+
+    public String awaitCode(long userId, long timeoutMs) throws InterruptedException {
+        return queue(userId).poll(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private BlockingQueue<String> queue(long userId) {
+        return codesByUser.computeIfAbsent(userId, id -> new LinkedBlockingQueue<>());
+    }
+
+    private void readLoop(long start) {
+        long position = start;
+        StringBuilder partial = new StringBuilder();
+        byte[] chunk = new byte[64 * 1024];
+        while (!closed) {
+            try {
+                if (!Files.exists(path)) {
+                    Thread.sleep(5);
+                    continue;
+                }
+                try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+                    if (file.length() < position) {
+                        // Файл ротирован
+                        position = 0;
+                        partial.setLength(0);
+                    }
+                    file.seek(position);
+                    int read;
+                    while ((read = file.read(chunk)) > 0) {
+                        position += read;
+                        partial.append(new String(chunk, 0, read, StandardCharsets.UTF_8));
+                        int newline;
+                        while ((newline = partial.indexOf("\n")) >= 0) {
+                            accept(partial.substring(0, newline));
+                            partial.delete(0, newline + 1);
+                        }
+                    }
+                }
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                // Файл мог быть переименован во время чтения — повторим
+            }
+        }
+    }
+
+    private void accept(String line) {
+        String[] parts = line.split(",");
+        if (parts.length >= 2) {
+            try {
+                queue(Long.parseLong(parts[0])).offer(parts[1]);
+            } catch (NumberFormatException ignored) {
+                // не строка кода
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        reader.interrupt();
+    }
+}
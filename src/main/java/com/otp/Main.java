@@ -3,27 +3,50 @@ package com.otp;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.otp.api.AdminController;
 import com.otp.api.AuthController;
 import com.otp.api.UserController;
+import com.otp.dao.ActiveOtpCache;
+import com.otp.dao.ConnectionPool;
+import com.otp.dao.JwtTokenDao;
+import com.otp.dao.OtpArchiveDao;
 import com.otp.dao.OtpCodeDao;
 import com.otp.dao.OtpConfigDao;
+import com.otp.dao.UserCache;
 import com.otp.dao.UserDao;
+import com.otp.metrics.JvmMetrics;
+import com.otp.metrics.MetricsHandler;
+import com.otp.metrics.MetricsRegistry;
 import com.otp.middleware.AdminAuthMiddleware;
+import com.otp.middleware.ConcurrencyLimitMiddleware;
+import com.otp.middleware.MetricsMiddleware;
+import com.otp.middleware.RateLimitMiddleware;
+import com.otp.notification.DeliveryPipeline;
 import com.otp.notification.NotificationService;
 import com.otp.service.AdminService;
 import com.otp.service.AuthService;
+import com.otp.service.HmacOtpEngine;
 import com.otp.service.JwtService;
+import com.otp.service.OtpCodeGenerator;
+import com.otp.service.OtpConfigCache;
+import com.otp.service.OtpExpirySweeper;
+import com.otp.service.OtpRateLimiter;
+import com.otp.service.OtpRetentionService;
 import com.otp.service.OtpService;
 import com.otp.service.PasswordEncoder;
+import com.otp.service.TokenRevocationService;
+import com.otp.util.RateLimiter;
 
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
@@ -39,43 +62,65 @@ public class Main {
             // Инициализация конфигурации
             Properties config = loadConfiguration();
             
-            // Подключение к БД
-            Connection connection = createDatabaseConnection(config);
+            // Пул соединений с БД
+            ConnectionPool connectionPool = new ConnectionPool("main", config, "db.pool");
             
             
             // Инициализация DAO
-            UserDao userDao = new UserDao(connection);
-            OtpCodeDao otpCodeDao = new OtpCodeDao(connection);
-            OtpConfigDao otpConfigDao = new OtpConfigDao(connection);
+            UserCache userCache = new UserCache(config);
+            UserDao userDao = new UserDao(connectionPool, userCache);
+            OtpConfigDao otpConfigDao = new OtpConfigDao(connectionPool);
+            ActiveOtpCache activeOtpCache = new ActiveOtpCache(config);
+            // lazy — истечение вычисляется при чтении, EXPIRED в БД не пишется и чистильщик не нужен
+            boolean lazyExpiry = "lazy".equals(config.getProperty("otp.expiry.mode", "eager"));
+            OtpCodeDao otpCodeDao = new OtpCodeDao(connectionPool, activeOtpCache,
+                Boolean.parseBoolean(config.getProperty("otp.history.enabled", "false")), lazyExpiry,
+                Integer.parseInt(config.getProperty("otp.validate.max_failed_attempts", "5")));
+            
+            // Конфигурация OTP в памяти; размер кэша кодов следует за сроком жизни кода
+            OtpConfigCache otpConfigCache = new OtpConfigCache(otpConfigDao, connectionPool, config);
+            otpConfigCache.addListener(snapshot -> activeOtpCache.resize(snapshot.expiryMinutes()));
+            otpConfigCache.start();
            
             NotificationService notificationService = new NotificationService(userDao, config);
-            PasswordEncoder passwordEncoder = new PasswordEncoder();
+            // Хеширование паролей на отдельном ограниченном пуле
+            PasswordEncoder passwordEncoder = new PasswordEncoder(config);
+            // Реестр отозванных токенов в памяти
+            TokenRevocationService tokenRevocationService = new TokenRevocationService(new JwtTokenDao(connectionPool), config);
+            tokenRevocationService.start();
             // Инициализация сервисов
             JwtService jwtService = new JwtService(
                 config.getProperty("jwt.secret"),
                 Integer.parseInt(config.getProperty("jwt.expiration")),
-                userDao
+                userDao,
+                JwtService.AuthMode.valueOf(config.getProperty("jwt.auth.mode", "database").toUpperCase()),
+                tokenRevocationService
             );
             
             AuthService authService = new AuthService(userDao, jwtService, passwordEncoder);
-            OtpService otpService = new OtpService(otpCodeDao, otpConfigDao, notificationService);
-            AdminService adminService = new AdminService(userDao, otpConfigDao, otpCodeDao);
-            
-            // Запуск фонового процесса очистки просроченных кодов
-            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-            scheduler.scheduleWithFixedDelay(
-                () -> {
-                    try {
-                        int expired = otpCodeDao.expireOldCodes();
-                        if (expired > 0) {
-                            logger.info("Expired {} old OTP codes", expired);
-                        }
-                    } catch (SQLException e) {
-                        logger.error("Error expiring old OTP codes", e);
-                    }
-                },
-                0, 60, TimeUnit.SECONDS
-            );
+            DeliveryPipeline deliveryPipeline = new DeliveryPipeline(notificationService, otpCodeDao, config);
+            deliveryPipeline.recoverPending();
+            // stored — случайный код в otp_codes; hmac — код вычисляется из секрета пользователя и не хранится
+            HmacOtpEngine hmacOtpEngine = "hmac".equals(config.getProperty("otp.mode", "stored"))
+                ? new HmacOtpEngine(config)
+                : null;
+            OtpService otpService = new OtpService(otpCodeDao, otpConfigCache, deliveryPipeline,
+                new OtpCodeGenerator(OtpCodeGenerator.Alphabet.valueOf(config.getProperty("otp.code.alphabet", "numeric").toUpperCase())),
+                hmacOtpEngine);
+            AdminService adminService = new AdminService(userDao, otpConfigDao, otpCodeDao, otpConfigCache);
+            
+            // Фоновые задачи (истечение, архивация) работают на отдельном небольшом пуле соединений
+            ConnectionPool sweeperPool = new ConnectionPool("sweeper", config, "db.sweeper.pool");
+            OtpExpirySweeper expirySweeper = new OtpExpirySweeper(new OtpCodeDao(sweeperPool), config);
+            if (!lazyExpiry) {
+                expirySweeper.start();
+            }
+            
+            // Перенос закрытых кодов в архив и удаление старых секций архива
+            OtpRetentionService retentionService = new OtpRetentionService(new OtpArchiveDao(sweeperPool), config);
+            if (Boolean.parseBoolean(config.getProperty("otp.retention.enabled", "true"))) {
+                retentionService.start();
+            }
             
             // Запуск HTTP сервера
             HttpServer server = HttpServer.create(new InetSocketAddress(8080), 0);
@@ -92,16 +137,53 @@ public class Main {
                 adminController::handleUsers,
                 authService
             );
+
+            HttpHandler adminOtpCodesHandler = new AdminAuthMiddleware(
+                adminController::handleOtpCodes,
+                authService
+            );
+            
+            // Общий лимит одновременно обрабатываемых запросов
+            Semaphore serverInFlight = new Semaphore(Integer.parseInt(config.getProperty("server.max_in_flight", "512")));
             
             // Регистрация обработчиков
-            server.createContext("/api/auth/register", new AuthController(authService)::handleRegister);
-            server.createContext("/api/auth/login", new AuthController(authService)::handleLogin);
-            server.createContext("/api/user/otp/generate", new UserController(otpService, authService)::handleGenerateOtp);
-            server.createContext("/api/user/otp/validate", new UserController(otpService, authService)::handleValidateOtp);
-            server.createContext("/api/admin/config", adminConfigHandler);
-            server.createContext("/api/admin/users", adminUsersHandler);
-            
-            server.setExecutor(null);
+            registerRoute(server, config, serverInFlight, "/api/auth/register", new AuthController(authService)::handleRegister);
+            registerRoute(server, config, serverInFlight, "/api/auth/login", new AuthController(authService)::handleLogin);
+            registerRoute(server, config, serverInFlight, "/api/auth/logout", new AuthController(authService)::handleLogout);
+            // Лимиты частоты: по IP до аутентификации, по пользователю и операции в контроллере
+            OtpRateLimiter otpRateLimiter = new OtpRateLimiter(config);
+            RateLimiter generateIpLimiter = OtpRateLimiter.create(config, "generate", "ip");
+            RateLimiter validateIpLimiter = OtpRateLimiter.create(config, "validate", "ip");
+            int maxBatchSize = Integer.parseInt(config.getProperty("otp.batch.max_size", "1000"));
+            UserController userController = new UserController(otpService, authService, maxBatchSize, otpRateLimiter);
+            registerRoute(server, config, serverInFlight, "/api/user/otp/generate", limitByIp(userController::handleGenerateOtp, generateIpLimiter));
+            registerRoute(server, config, serverInFlight, "/api/user/otp/validate", limitByIp(userController::handleValidateOtp, validateIpLimiter));
+            registerRoute(server, config, serverInFlight, "/api/user/otp/generate/batch", limitByIp(userController::handleGenerateOtpBatch, generateIpLimiter));
+            registerRoute(server, config, serverInFlight, "/api/user/otp/validate/batch", limitByIp(userController::handleValidateOtpBatch, validateIpLimiter));
+            registerRoute(server, config, serverInFlight, "/api/admin/config", adminConfigHandler);
+            registerRoute(server, config, serverInFlight, "/api/admin/users", adminUsersHandler);
+            registerRoute(server, config, serverInFlight, "/api/admin/otp-codes", adminOtpCodesHandler);
+            
+            // Метрики для Prometheus; /metrics не проходит через лимиты, чтобы сбор работал и под нагрузкой
+            if (Boolean.parseBoolean(config.getProperty("metrics.enabled", "true"))) {
+                JvmMetrics.register();
+                registerComponentMetrics(connectionPool, sweeperPool, userCache, activeOtpCache, deliveryPipeline,
+                    notificationService, tokenRevocationService, expirySweeper, retentionService, passwordEncoder);
+                List<RateLimiter> limiters = new ArrayList<>(otpRateLimiter.getLimiters());
+                for (RateLimiter limiter : new RateLimiter[] {generateIpLimiter, validateIpLimiter}) {
+                    if (limiter != null) {
+                        limiters.add(limiter);
+                    }
+                }
+                for (RateLimiter limiter : limiters) {
+                    MetricsRegistry.gauge("rate_limiter_keys", "Tracked keys per rate limiter", limiter::getKeyCount, "limiter", limiter.getName());
+                    MetricsRegistry.functionCounter("rate_limiter_rejected_total", "Requests rejected with 429", limiter::getRejectedCount, "limiter", limiter.getName());
+                }
+                server.createContext(config.getProperty("metrics.path", "/metrics"), new MetricsHandler());
+            }
+            
+            ExecutorService requestExecutor = createRequestExecutor(config);
+            server.setExecutor(requestExecutor);
             server.start();
             
             logger.info("OTP Service started on port 8080");
@@ -110,12 +192,21 @@ public class Main {
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 logger.info("Shutting down OTP Service...");
                 server.stop(5);
-                scheduler.shutdown();
-                try {
-                    connection.close();
-                } catch (SQLException e) {
-                    logger.error("Error closing database connection", e);
+                if (requestExecutor != null) {
+                    requestExecutor.shutdown();
+                }
+                expirySweeper.stop();
+                retentionService.stop();
+                otpConfigCache.stop();
+                if (hmacOtpEngine != null) {
+                    hmacOtpEngine.stop();
                 }
+                tokenRevocationService.stop();
+                deliveryPipeline.shutdown();
+                notificationService.close();
+                passwordEncoder.close();
+                sweeperPool.close();
+                connectionPool.close();
             }));
             
         } catch (Exception e) {
@@ -124,12 +215,110 @@ public class Main {
         }
     }
     
-    private static Connection createDatabaseConnection(Properties config) throws SQLException {
-        String url = config.getProperty("db.url");
-        String username = config.getProperty("db.username");
-        String password = config.getProperty("db.password");
-        
-        return DriverManager.getConnection(url, username, password);
+    private static void registerRoute(HttpServer server, Properties config, Semaphore serverInFlight,
+                                      String path, HttpHandler handler) {
+        int routeLimit = Integer.parseInt(config.getProperty("server.route.max_concurrent." + path,
+            config.getProperty("server.route.max_concurrent.default", "128")));
+        Semaphore routeInFlight = new Semaphore(routeLimit);
+        MetricsRegistry.gauge("http_server_requests_in_flight", "Requests in progress by route",
+            () -> routeLimit - routeInFlight.availablePermits(), "route", path);
+        server.createContext(path, new MetricsMiddleware(
+            new ConcurrencyLimitMiddleware(handler, path, serverInFlight, routeInFlight), path));
+    }
+
+    private static HttpHandler limitByIp(HttpHandler handler, RateLimiter ipLimiter) {
+        return ipLimiter == null ? handler : new RateLimitMiddleware(handler, ipLimiter);
+    }
+
+    /**
+     * Экспорт счётчиков, которые компоненты уже ведут сами
+     */
+    private static void registerComponentMetrics(ConnectionPool connectionPool, ConnectionPool sweeperPool,
+                                                 UserCache userCache, ActiveOtpCache activeOtpCache,
+                                                 DeliveryPipeline deliveryPipeline, NotificationService notificationService,
+                                                 TokenRevocationService tokenRevocationService,
+                                                 OtpExpirySweeper expirySweeper, OtpRetentionService retentionService,
+                                                 PasswordEncoder passwordEncoder) {
+        for (ConnectionPool pool : new ConnectionPool[] {connectionPool, sweeperPool}) {
+            String name = pool.getName();
+            MetricsRegistry.gauge("db_pool_connections_active", "Borrowed connections", pool::getActiveCount, "pool", name);
+            MetricsRegistry.gauge("db_pool_connections_idle", "Idle connections", pool::getIdleCount, "pool", name);
+            MetricsRegistry.gauge("db_pool_connections_max", "Pool size limit", pool::getMaxSize, "pool", name);
+            MetricsRegistry.gauge("db_pool_waiting_threads", "Threads waiting for a connection", pool::getWaitingCount, "pool", name);
+            MetricsRegistry.functionCounter("db_pool_borrows_total", "Connection borrows", pool::getBorrowCount, "pool", name);
+            MetricsRegistry.functionCounter("db_pool_timeouts_total", "Connection borrow timeouts", pool::getTimeoutCount, "pool", name);
+            MetricsRegistry.functionCounter("db_pool_wait_seconds_total", "Time spent waiting for connections",
+                () -> pool.getTotalWaitNanos() / 1e9, "pool", name);
+        }
+
+        MetricsRegistry.gauge("cache_size", "Entries in cache", userCache::getSize, "cache", "user");
+        MetricsRegistry.functionCounter("cache_hits_total", "Cache hits", userCache::getHitCount, "cache", "user");
+        MetricsRegistry.functionCounter("cache_misses_total", "Cache misses", userCache::getMissCount, "cache", "user");
+        MetricsRegistry.gauge("cache_size", "Entries in cache", activeOtpCache::getSize, "cache", "active_otp");
+        MetricsRegistry.functionCounter("cache_hits_total", "Cache hits", activeOtpCache::getHitCount, "cache", "active_otp");
+        MetricsRegistry.functionCounter("cache_misses_total", "Cache misses", activeOtpCache::getMissCount, "cache", "active_otp");
+        MetricsRegistry.functionCounter("cache_evictions_total", "Entries evicted over capacity", activeOtpCache::getEvictionCount, "cache", "active_otp");
+
+        MetricsRegistry.functionCounter("otp_delivery_sent_total", "OTP codes delivered", deliveryPipeline::getSentCount);
+        MetricsRegistry.functionCounter("otp_delivery_retries_total", "OTP delivery retries", deliveryPipeline::getRetryCount);
+        MetricsRegistry.functionCounter("otp_delivery_dead_letters_total", "OTP deliveries given up", deliveryPipeline::getDeadLetterCount);
+        MetricsRegistry.gauge("otp_delivery_status_queue_depth", "Delivery results waiting to be recorded", deliveryPipeline::getStatusQueueDepth);
+
+        var telegram = notificationService.getTelegramService().getSender();
+        MetricsRegistry.functionCounter("telegram_rate_limited_total", "Telegram 429 responses", telegram::getRateLimitedCount);
+        MetricsRegistry.functionCounter("telegram_throttled_total", "Telegram sends rejected by the local rate limit backlog", telegram::getThrottledCount);
+        var smpp = notificationService.getSmsService().getSessionPool();
+        MetricsRegistry.gauge("smpp_sessions_bound", "Bound SMPP sessions", smpp::getBoundCount);
+        MetricsRegistry.gauge("smpp_submits_in_flight", "SMPP submits awaiting response", smpp::getInFlightCount);
+        var smtp = notificationService.getEmailService().getTransportPool();
+        MetricsRegistry.gauge("smtp_queue_depth", "Emails waiting for a transport", smtp::getQueueDepth);
+        MetricsRegistry.functionCounter("smtp_connections_opened_total", "SMTP connections opened", smtp::getConnectionsOpened);
+        var appender = notificationService.getFileService().getAppender();
+        MetricsRegistry.gauge("file_appender_buffered_records", "Records waiting to be written", appender::getBufferedCount);
+        MetricsRegistry.functionCounter("file_appender_batches_total", "Write batches", appender::getBatchCount);
+        MetricsRegistry.functionCounter("file_appender_fsyncs_total", "fsync calls", appender::getFsyncCount);
+
+        MetricsRegistry.gauge("jwt_revoked_tokens", "Revoked, not yet expired tokens in memory", tokenRevocationService::getRevokedCount);
+        MetricsRegistry.functionCounter("jwt_revocation_checks_total", "Revocation checks", tokenRevocationService::getCheckCount);
+
+        MetricsRegistry.functionCounter("otp_sweeper_expired_total", "Codes expired by the sweeper", expirySweeper::getSweptCount);
+        MetricsRegistry.functionCounter("otp_sweeper_runs_total", "Sweeper runs", expirySweeper::getRunCount);
+        MetricsRegistry.gauge("otp_sweeper_lag_seconds", "Age of the oldest expired but still active code",
+            () -> expirySweeper.getLagMillis() / 1000.0);
+        MetricsRegistry.functionCounter("otp_retention_archived_total", "Codes moved to the archive", retentionService::getArchivedCount);
+        MetricsRegistry.functionCounter("otp_retention_dropped_partitions_total", "Archive partitions dropped", retentionService::getDroppedPartitionCount);
+
+        MetricsRegistry.gauge("password_hash_queue_depth", "Hashing tasks waiting for a worker", passwordEncoder::getQueueDepth);
+        MetricsRegistry.gauge("password_hash_active_workers", "Hashing workers busy", passwordEncoder::getActiveCount);
+        MetricsRegistry.functionCounter("password_hash_rejected_total", "Hashing tasks rejected or timed out", passwordEncoder::getRejectedCount);
+    }
+
+    /**
+     * Исполнитель запросов HTTP-сервера: виртуальный поток на запрос, ограниченный пул
+     * платформенных потоков или (null) единственный поток диспетчера
+     */
+    private static ExecutorService createRequestExecutor(Properties config) {
+        String mode = config.getProperty("server.executor.mode", "virtual");
+        switch (mode) {
+            case "virtual":
+                logger.info("HTTP requests run on virtual threads");
+                return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-", 0).factory());
+            case "platform":
+                int threads = Integer.parseInt(config.getProperty("server.executor.platform_threads", "64"));
+                int queueSize = Integer.parseInt(config.getProperty("server.executor.queue_size", "1000"));
+                logger.info("HTTP requests run on {} platform threads (queue {})", threads, queueSize);
+                AtomicInteger counter = new AtomicInteger();
+                // При переполнении очереди запрос выполняется потоком диспетчера — это и есть backpressure
+                return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueSize),
+                    r -> new Thread(r, "http-" + counter.getAndIncrement()),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            case "dispatcher":
+                logger.info("HTTP requests run on the dispatcher thread");
+                return null;
+            default:
+                throw new IllegalArgumentException("Unknown server.executor.mode: " + mode);
+        }
     }
 
     private static Properties loadConfiguration() {
@@ -1,17 +1,14 @@
 package com.otp.api;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.otp.model.User;
 import com.otp.service.AuthService;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.sun.net.httpserver.HttpExchange;
 
 import org.slf4j.Logger;
@@ -19,9 +16,14 @@ import org.slf4j.LoggerFactory;
 
 public class AuthController {
     private static final Logger logger = LoggerFactory.getLogger(UserController.class);
+    private static final ObjectReader CREDENTIALS_READER = HttpIo.readerFor(Credentials.class);
     
     private final AuthService authService;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Тело запросов регистрации и входа; role нужна только при регистрации
+     */
+    public record Credentials(String username, String password, String role) {}
 
     public AuthController(AuthService authService) {
         this.authService = authService;
@@ -30,114 +32,94 @@ public class AuthController {
 
     public void handleRegister(HttpExchange exchange) throws IOException {
         if (!"POST".equals(exchange.getRequestMethod())) {
-            sendResponse(exchange, 405, "Method not allowed");
+            HttpIo.sendText(exchange, 405, "Method not allowed");
             return;
         }
 
         try {
-            Map<String,String> request = parseRequestBody(exchange);
-            String username = request.get("username");
-            String password = request.get("password");
-            String role = request.get("role");
+            Credentials request = parseRequestBody(exchange);
+            String role = request.role();
+            if (request.username() == null || request.password() == null || role == null) {
+                HttpIo.sendText(exchange, 400, "Invalid request format");
+                return;
+            }
 
             // Проверка существования администратора
             if (User.Role.ADMIN.name().equalsIgnoreCase(role) && authService.adminExists()) {
-                sendResponse(exchange, 409, "Admin already exists");
+                HttpIo.sendText(exchange, 409, "Admin already exists");
                 return;
             }
 
-            User user = authService.register(username, password, User.Role.valueOf(role.toUpperCase()));
-            sendJsonResponse(exchange, 201, Map.of(
+            User user = authService.register(request.username(), request.password(), User.Role.valueOf(role.toUpperCase()));
+            HttpIo.sendJson(exchange, 201, Map.of(
                 "id", user.getId(),
                 "username", user.getUsername(),
                 "role", user.getRole().name()
             ));
+        } catch (JsonProcessingException e) {
+            HttpIo.sendText(exchange, 400, "Invalid request format");
         } catch (IllegalArgumentException e) {
-            sendResponse(exchange, 400, "Invalid role");
+            HttpIo.sendText(exchange, 400, "Invalid role");
+        } catch (RejectedExecutionException e) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            HttpIo.sendText(exchange, 503, "Service busy");
         } catch (Exception e) {
-            sendResponse(exchange, 500, "Registration failed");
+            HttpIo.sendText(exchange, 500, "Registration failed");
         }
     }
 
     public void handleLogin(HttpExchange exchange) throws IOException {
         try {
-            Map<String, String> request = parseRequestBody(exchange);
-            String username = request.get("username");
-            String password = request.get("password");
+            Credentials request = parseRequestBody(exchange);
 
-            String token = authService.login(username, password);
-            sendJsonResponse(exchange, 200, Map.of("token", token));
+            String token = authService.login(request.username(), request.password());
+            HttpIo.sendJson(exchange, 200, Map.of("token", token));
+        } catch (JsonProcessingException e) {
+            HttpIo.sendText(exchange, 400, "Invalid request format");
         } catch (SecurityException e) {
-            sendResponse(exchange, 401, "Invalid credentials");
+            HttpIo.sendText(exchange, 401, "Invalid credentials");
+        } catch (RejectedExecutionException e) {
+            // Пул хеширования перегружен
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            HttpIo.sendText(exchange, 503, "Service busy");
         } catch (Exception e) {
-            sendResponse(exchange, 500, "Login failed");
+            HttpIo.sendText(exchange, 500, "Login failed");
         }
     }
 
-    /**
-     * Отправка JSON-ответа
-     */
-    private void sendJsonResponse(HttpExchange exchange, int statusCode, Object responseData) throws IOException {
-        try {
-            String json = objectMapper.writeValueAsString(responseData);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(statusCode, json.getBytes().length);
-            
-            try (OutputStream os = exchange.getResponseBody()) {
-                os.write(json.getBytes());
-            }
-        } catch (Exception e) {
-            logger.error("Error sending JSON response", e);
-            sendResponse(exchange, 500, "Internal server error");
+    public void handleLogout(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            HttpIo.sendText(exchange, 405, "Method not allowed");
+            return;
         }
-    }
 
-    /**
-     * Отправка текстового ответа
-     */
-    private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
         try {
-            exchange.getResponseHeaders().set("Content-Type", "text/plain");
-            exchange.sendResponseHeaders(statusCode, response.getBytes().length);
-            
-            try (OutputStream os = exchange.getResponseBody()) {
-                os.write(response.getBytes());
+            String authHeader = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+                HttpIo.sendText(exchange, 401, "Missing Authorization header");
+                return;
             }
+
+            authService.logout(authHeader.substring(7));
+            HttpIo.sendEmpty(exchange, 204);
+        } catch (SecurityException e) {
+            HttpIo.sendText(exchange, 401, "Invalid token");
         } catch (Exception e) {
-            logger.error("Error sending response", e);
-            throw new IOException("Failed to send response", e);
+            logger.error("Logout failed", e);
+            HttpIo.sendText(exchange, 500, "Logout failed");
         }
     }
 
-    public Map<String, String> parseRequestBody(HttpExchange exchange) throws IOException {
+    /**
+     * Разбор тела запроса; пустое тело или не-объект — JsonProcessingException
+     */
+    public Credentials parseRequestBody(HttpExchange exchange) throws IOException {
         try {
-            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-            JsonNode rootNode = objectMapper.readTree(body);
-            
-            if (!rootNode.isObject()) {
-                throw new IOException("Expected JSON object");
-            }
-
-            Map<String, String> resultMap = new HashMap<>();
-            Iterator<Map.Entry<String, JsonNode>> fields = rootNode.fields();
-            
-            while (fields.hasNext()) {
-                Map.Entry<String, JsonNode> field = fields.next();
-                JsonNode valueNode = field.getValue();
-                
-                if (valueNode.isTextual()) {
-                    resultMap.put(field.getKey(), valueNode.asText());
-                } else if (valueNode.isNumber() || valueNode.isBoolean()) {
-                    resultMap.put(field.getKey(), valueNode.toString());
-                }
-                // Игнорируем массивы/объекты/null
-            }
-            
-            return resultMap;
-        } catch (Exception e) {
-            logger.error("Error parsing request body", e);
-            throw new IOException("Invalid request format");
+            return HttpIo.readJson(exchange, CREDENTIALS_READER);
+        } catch (JsonProcessingException e) {
+            logger.debug("Error parsing request body: {}", e.getOriginalMessage());
+            throw e;
         }
     }
 
-}
\ No newline at end of file
+}
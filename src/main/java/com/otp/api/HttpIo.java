@@ -0,0 +1,121 @@
+package com.otp.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Общий ввод-вывод HTTP для контроллеров и middleware: один настроенный ObjectMapper,
+ * потоковый разбор тела запроса сразу в типизированную запись, ответы из пула буферов
+ * с точным Content-Length и однократным кодированием в UTF-8.
+ */
+public final class HttpIo {
+    public static final String JSON = "application/json";
+    public static final String TEXT = "text/plain; charset=utf-8";
+
+    // Лишние поля в запросе игнорируются, как и при прежнем разборе через дерево
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final ObjectWriter WRITER = MAPPER.writer();
+
+    // Заранее закодированные тела частых ответов
+    private static final Map<String, byte[]> PRE_ENCODED = new HashMap<>();
+    static {
+        for (String text : new String[] {
+                "Method not allowed", "Method Not Allowed", "Internal server error", "Invalid request format",
+                "Invalid credentials", "Access denied", "Missing Authorization header", "Invalid token",
+                "Admin access required", "Too many requests", "Server is busy", "Too many concurrent requests",
+                "Service busy", "Database error", "Missing user ID", "Invalid user ID format",
+                "Login failed", "Registration failed", "Logout failed"}) {
+            PRE_ENCODED.put(text, text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private HttpIo() {
+    }
+
+    /**
+     * Читатель для типа тела запроса; создаётся один раз на тип и переиспользуется
+     */
+    public static ObjectReader readerFor(Class<?> type) {
+        return MAPPER.readerFor(type);
+    }
+
+    public static JsonFactory jsonFactory() {
+        return MAPPER.getFactory();
+    }
+
+    /**
+     * Разбор тела запроса из потока, без чтения в строку.
+     * Некорректный JSON — JsonProcessingException (подкласс IOException)
+     */
+    public static <T> T readJson(HttpExchange exchange, ObjectReader reader) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return reader.readValue(in);
+        }
+    }
+
+    public static void sendJson(HttpExchange exchange, int statusCode, Object body) throws IOException {
+        ResponseBuffer buffer = ResponseBuffer.acquire();
+        try {
+            WRITER.writeValue(buffer, body);
+            send(exchange, statusCode, JSON, buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    public static void sendText(HttpExchange exchange, int statusCode, String text) throws IOException {
+        sendText(exchange, statusCode, TEXT, text);
+    }
+
+    public static void sendText(HttpExchange exchange, int statusCode, String contentType, CharSequence text) throws IOException {
+        byte[] constant = PRE_ENCODED.get(text);
+        if (constant != null) {
+            send(exchange, statusCode, contentType, constant);
+            return;
+        }
+        ResponseBuffer buffer = ResponseBuffer.acquire();
+        try {
+            buffer.writeUtf8(text);
+            send(exchange, statusCode, contentType, buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Ответ без тела (204, 405 без пояснения)
+     */
+    public static void sendEmpty(HttpExchange exchange, int statusCode) throws IOException {
+        exchange.sendResponseHeaders(statusCode, -1);
+        exchange.close();
+    }
+
+    private static void send(HttpExchange exchange, int statusCode, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(statusCode, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int statusCode, String contentType, ResponseBuffer body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        // 0 в sendResponseHeaders означает chunked, пустое тело — -1
+        exchange.sendResponseHeaders(statusCode, body.size() == 0 ? -1 : body.size());
+        try (OutputStream os = exchange.getResponseBody()) {
+            body.writeTo(os);
+        }
+    }
+}
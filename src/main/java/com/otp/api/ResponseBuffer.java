@@ -0,0 +1,97 @@
+package com.otp.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Буфер тела ответа из общего пула. Пул, а не ThreadLocal: при виртуальных потоках
+ * ThreadLocal-буфер создавался бы на каждый запрос. Ответ целиком собирается в буфере,
+ * поэтому Content-Length известен точно и chunked-кодирование не нужно.
+ */
+final class ResponseBuffer extends OutputStream {
+    private static final int INITIAL_SIZE = 1024;
+    // Разросшиеся буферы (большие выгрузки) в пул не возвращаются
+    private static final int MAX_RETAINED_SIZE = 64 * 1024;
+    private static final ArrayBlockingQueue<ResponseBuffer> POOL = new ArrayBlockingQueue<>(256);
+
+    private byte[] buf = new byte[INITIAL_SIZE];
+    private int count;
+
+    private ResponseBuffer() {
+    }
+
+    static ResponseBuffer acquire() {
+        ResponseBuffer buffer = POOL.poll();
+        return buffer != null ? buffer : new ResponseBuffer();
+    }
+
+    void release() {
+        if (buf.length <= MAX_RETAINED_SIZE) {
+            count = 0;
+            POOL.offer(this);
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * Кодирование строки в UTF-8 прямо в буфер, без промежуточного массива
+     */
+    void writeUtf8(CharSequence s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                ensureCapacity(count + 1);
+                buf[count++] = (byte) c;
+            } else if (c < 0x800) {
+                ensureCapacity(count + 2);
+                buf[count++] = (byte) (0xC0 | (c >> 6));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensureCapacity(count + 4);
+                buf[count++] = (byte) (0xF0 | (cp >> 18));
+                buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Непарный суррогат — как String.getBytes(UTF_8)
+                ensureCapacity(count + 1);
+                buf[count++] = '?';
+            } else {
+                ensureCapacity(count + 3);
+                buf[count++] = (byte) (0xE0 | (c >> 12));
+                buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(required, buf.length * 2));
+        }
+    }
+}
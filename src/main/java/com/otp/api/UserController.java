@@ -1,43 +1,71 @@
 package com.otp.api;
 
+import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
+import com.otp.middleware.RateLimitMiddleware;
 import com.otp.model.OtpCode;
 import com.otp.model.User;
 import com.otp.service.AuthService;
+import com.otp.service.DeliveryQueueFullException;
+import com.otp.service.OperationOwnershipException;
+import com.otp.service.OtpRateLimiter;
 import com.otp.service.OtpService;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.sun.net.httpserver.HttpExchange;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import io.jsonwebtoken.io.IOException;
-
-
 public class UserController {
     private static final Logger logger = LoggerFactory.getLogger(UserController.class);
+    private static final ObjectReader GENERATE_READER = HttpIo.readerFor(GenerateRequest.class);
+    private static final ObjectReader VALIDATE_READER = HttpIo.readerFor(ValidateRequest.class);
     
     private final OtpService otpService;
     private final AuthService authService;
-    private final ObjectMapper objectMapper;
+    private final int maxBatchSize;
+    // null — лимиты по пользователю и операции не применяются
+    private final OtpRateLimiter rateLimiter;
+
+    /**
+     * Тело запроса выдачи кода (и элемент пакета)
+     */
+    public record GenerateRequest(String operationId, String deliveryMethod) {}
+
+    /**
+     * Тело запроса проверки кода (и элемент пакета)
+     */
+    public record ValidateRequest(String operationId, String code) {}
 
     public UserController(OtpService otpService, AuthService authService) {
+        this(otpService, authService, 1000);
+    }
+
+    public UserController(OtpService otpService, AuthService authService, int maxBatchSize) {
+        this(otpService, authService, maxBatchSize, null);
+    }
+
+    public UserController(OtpService otpService, AuthService authService, int maxBatchSize, OtpRateLimiter rateLimiter) {
         this.otpService = otpService;
         this.authService = authService;
-        this.objectMapper = new ObjectMapper();
+        this.maxBatchSize = maxBatchSize;
+        this.rateLimiter = rateLimiter;
     }
     
     public void handleGenerateOtp(HttpExchange exchange) throws IOException {
         if (!"POST".equals(exchange.getRequestMethod())) {
-            sendResponse(exchange, 405, "Method not allowed");
+            HttpIo.sendText(exchange, 405, "Method not allowed");
             return;
         }
         
@@ -45,35 +73,49 @@ public class UserController {
             // Проверяем авторизацию
             User user = getAuthenticatedUser(exchange);
             if (user.getRole() != User.Role.USER) {
-                sendResponse(exchange, 403, "Access denied");
+                HttpIo.sendText(exchange, 403, "Access denied");
                 return;
             }
             
             // Парсим запрос
-            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-            JsonNode request = objectMapper.readTree(body);
+            GenerateRequest request = HttpIo.readJson(exchange, GENERATE_READER);
+            String operationId = request.operationId();
+            OtpCode.DeliveryMethod deliveryMethod = parseDeliveryMethod(request.deliveryMethod());
+            if (operationId == null || deliveryMethod == null) {
+                HttpIo.sendText(exchange, 400, "Invalid request format");
+                return;
+            }
             
-            String operationId = request.get("operationId").asText();
-            String deliveryMethod = request.get("deliveryMethod").asText();
+            if (rateLimiter != null && rejectIfLimited(exchange, rateLimiter.checkGenerate(user.getId(), operationId))) {
+                return;
+            }
             
             // Генерируем OTP
             String result = otpService.generateOtp(
                 user.getId(), 
                 operationId, 
-                OtpCode.DeliveryMethod.valueOf(deliveryMethod)
+                deliveryMethod
             );
             
-            sendJsonResponse(exchange, 200, Map.of("operationId", result));
+            HttpIo.sendJson(exchange, 200, Map.of("operationId", result));
             
+        } catch (JsonProcessingException e) {
+            HttpIo.sendText(exchange, 400, "Invalid request format");
+        } catch (OperationOwnershipException e) {
+            HttpIo.sendText(exchange, 409, "Operation belongs to another user");
+        } catch (DeliveryQueueFullException e) {
+            // Код не уйдёт клиенту — просим повторить выдачу позже
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            HttpIo.sendText(exchange, 503, "Delivery queue is full");
         } catch (Exception e) {
             logger.error("Error generating OTP", e);
-            sendResponse(exchange, 500, "Internal server error");
+            HttpIo.sendText(exchange, 500, "Internal server error");
         }
     }
     
     public void handleValidateOtp(HttpExchange exchange) throws IOException {
         if (!"POST".equals(exchange.getRequestMethod())) {
-            sendResponse(exchange, 405, "Method not allowed");
+            HttpIo.sendText(exchange, 405, "Method not allowed");
             return;
         }
         
@@ -81,63 +123,228 @@ public class UserController {
             // Проверяем авторизацию
             User user = getAuthenticatedUser(exchange);
             if (user.getRole() != User.Role.USER) {
-                sendResponse(exchange, 403, "Access denied");
+                HttpIo.sendText(exchange, 403, "Access denied");
                 return;
             }
             
             // Парсим запрос
-            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-            JsonNode request = objectMapper.readTree(body);
+            ValidateRequest request = HttpIo.readJson(exchange, VALIDATE_READER);
+            String operationId = request.operationId();
+            String code = request.code();
+            if (operationId == null || code == null) {
+                HttpIo.sendText(exchange, 400, "Invalid request format");
+                return;
+            }
             
-            String operationId = request.get("operationId").asText();
-            String code = request.get("code").asText();
+            if (rateLimiter != null && rejectIfLimited(exchange, rateLimiter.checkValidate(user.getId(), operationId))) {
+                return;
+            }
             
             // Валидируем OTP
-            boolean isValid = otpService.validateOtp(operationId, code);
+            boolean isValid = otpService.validateOtp(user.getId(), operationId, code);
             
-            sendJsonResponse(exchange, 200, Map.of("valid", isValid));
+            HttpIo.sendJson(exchange, 200, Map.of("valid", isValid));
             
+        } catch (JsonProcessingException e) {
+            HttpIo.sendText(exchange, 400, "Invalid request format");
         } catch (Exception e) {
             logger.error("Error validating OTP", e);
-            sendResponse(exchange, 500, "Internal server error");
+            HttpIo.sendText(exchange, 500, "Internal server error");
         }
     }
     
-        /**
-     * Отправка JSON-ответа
+    /**
+     * Пакетная выдача кодов: [{"operationId": "...", "deliveryMethod": "SMS"}, ...]
      */
-    private void sendJsonResponse(HttpExchange exchange, int statusCode, Object responseData) throws IOException {
+    public void handleGenerateOtpBatch(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            HttpIo.sendText(exchange, 405, "Method not allowed");
+            return;
+        }
+        
         try {
-            String json = objectMapper.writeValueAsString(responseData);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(statusCode, json.getBytes().length);
+            User user = getAuthenticatedUser(exchange);
+            if (user.getRole() != User.Role.USER) {
+                HttpIo.sendText(exchange, 403, "Access denied");
+                return;
+            }
+            
+            List<OtpService.BatchGenerateItem> items = new ArrayList<>();
+            if (!readBatch(exchange, GENERATE_READER, (GenerateRequest item) -> items.add(new OtpService.BatchGenerateItem(
+                    item.operationId(), parseDeliveryMethod(item.deliveryMethod()))))) {
+                return;
+            }
+            
+            if (rateLimiter == null) {
+                sendBatchResponse(exchange, otpService.generateBatch(user.getId(), items));
+                return;
+            }
             
-            try (OutputStream os = exchange.getResponseBody()) {
-                os.write(json.getBytes());
+            // Лимиты по элементам: пакет расходует столько же, сколько отдельные запросы
+            List<String> operationIds = new ArrayList<>(items.size());
+            items.forEach(item -> operationIds.add(item.operationId()));
+            long[] waits = rateLimiter.checkGenerateBatch(user.getId(), operationIds);
+            
+            List<OtpService.BatchGenerateItem> allowed = new ArrayList<>(items.size());
+            long minWait = Long.MAX_VALUE;
+            for (int i = 0; i < items.size(); i++) {
+                if (waits[i] == 0) {
+                    allowed.add(items.get(i));
+                } else {
+                    minWait = Math.min(minWait, waits[i]);
+                }
+            }
+            if (!items.isEmpty() && allowed.isEmpty() && rejectIfLimited(exchange, minWait)) {
+                return;
             }
+            
+            List<OtpService.BatchItemResult> issued = otpService.generateBatch(user.getId(), allowed);
+            List<OtpService.BatchItemResult> results = new ArrayList<>(items.size());
+            for (int i = 0, next = 0; i < items.size(); i++) {
+                results.add(waits[i] == 0
+                    ? issued.get(next++)
+                    : new OtpService.BatchItemResult(items.get(i).operationId(), OtpService.BATCH_ERROR, "Rate limit exceeded"));
+            }
+            sendBatchResponse(exchange, results);
+        } catch (SecurityException e) {
+            HttpIo.sendText(exchange, 401, "Invalid credentials");
         } catch (Exception e) {
-            logger.error("Error sending JSON response", e);
-            sendResponse(exchange, 500, "Internal server error");
+            logger.error("Error generating OTP batch", e);
+            HttpIo.sendText(exchange, 500, "Internal server error");
         }
     }
-
+    
     /**
-     * Отправка текстового ответа
+     * Пакетная проверка кодов: [{"operationId": "...", "code": "..."}, ...]
      */
-    private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
+    public void handleValidateOtpBatch(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            HttpIo.sendText(exchange, 405, "Method not allowed");
+            return;
+        }
+        
         try {
-            exchange.getResponseHeaders().set("Content-Type", "text/plain");
-            exchange.sendResponseHeaders(statusCode, response.getBytes().length);
+            User user = getAuthenticatedUser(exchange);
+            if (user.getRole() != User.Role.USER) {
+                HttpIo.sendText(exchange, 403, "Access denied");
+                return;
+            }
+            
+            List<OtpService.BatchValidateItem> items = new ArrayList<>();
+            if (!readBatch(exchange, VALIDATE_READER, (ValidateRequest item) -> items.add(new OtpService.BatchValidateItem(
+                    item.operationId(), item.code())))) {
+                return;
+            }
             
-            try (OutputStream os = exchange.getResponseBody()) {
-                os.write(response.getBytes());
+            if (rateLimiter == null) {
+                sendBatchResponse(exchange, otpService.consumeBatch(user.getId(), items));
+                return;
             }
+            
+            // Лимиты по элементам: пакет не обходит лимит перебора кода
+            List<String> operationIds = new ArrayList<>(items.size());
+            items.forEach(item -> operationIds.add(item.operationId()));
+            long[] waits = rateLimiter.checkValidateBatch(user.getId(), operationIds);
+            
+            List<OtpService.BatchValidateItem> allowed = new ArrayList<>(items.size());
+            long minWait = Long.MAX_VALUE;
+            for (int i = 0; i < items.size(); i++) {
+                if (waits[i] == 0) {
+                    allowed.add(items.get(i));
+                } else {
+                    minWait = Math.min(minWait, waits[i]);
+                }
+            }
+            if (!items.isEmpty() && allowed.isEmpty() && rejectIfLimited(exchange, minWait)) {
+                return;
+            }
+            
+            List<OtpService.BatchItemResult> checked = otpService.consumeBatch(user.getId(), allowed);
+            List<OtpService.BatchItemResult> results = new ArrayList<>(items.size());
+            for (int i = 0, next = 0; i < items.size(); i++) {
+                results.add(waits[i] == 0
+                    ? checked.get(next++)
+                    : new OtpService.BatchItemResult(items.get(i).operationId(), OtpService.BATCH_ERROR, "Rate limit exceeded"));
+            }
+            sendBatchResponse(exchange, results);
+        } catch (SecurityException e) {
+            HttpIo.sendText(exchange, 401, "Invalid credentials");
         } catch (Exception e) {
-            logger.error("Error sending response", e);
-            throw new IOException("Failed to send response", e);
+            logger.error("Error validating OTP batch", e);
+            HttpIo.sendText(exchange, 500, "Internal server error");
         }
     }
-
+    
+    /**
+     * true — лимит превышен, 429 с Retry-After уже отправлен
+     */
+    private boolean rejectIfLimited(HttpExchange exchange, long waitNanos) throws IOException {
+        if (waitNanos <= 0) {
+            return false;
+        }
+        RateLimitMiddleware.sendTooManyRequests(exchange, waitNanos);
+        return true;
+    }
+    
+    /**
+     * Потоковое чтение JSON-массива: элементы разбираются по одному сразу в записи, без дерева всего тела.
+     * false — ответ с ошибкой уже отправлен.
+     */
+    private <T> boolean readBatch(HttpExchange exchange, ObjectReader itemReader, Consumer<T> itemConsumer) throws IOException {
+        try (JsonParser parser = HttpIo.jsonFactory().createParser(exchange.getRequestBody())) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                HttpIo.sendText(exchange, 400, "Expected JSON array");
+                return false;
+            }
+            int count = 0;
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                if (++count > maxBatchSize) {
+                    HttpIo.sendText(exchange, 413, "Batch size exceeds " + maxBatchSize);
+                    return false;
+                }
+                itemConsumer.accept(itemReader.readValue(parser));
+            }
+            if (parser.currentToken() != JsonToken.END_ARRAY) {
+                HttpIo.sendText(exchange, 400, "Batch items must be JSON objects");
+                return false;
+            }
+            return true;
+        } catch (JsonProcessingException e) {
+            HttpIo.sendText(exchange, 400, "Invalid request format");
+            return false;
+        }
+    }
+    
+    /**
+     * Потоковая запись результатов (chunked), в порядке элементов запроса
+     */
+    private void sendBatchResponse(HttpExchange exchange, List<OtpService.BatchItemResult> results) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", HttpIo.JSON);
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream os = exchange.getResponseBody();
+             JsonGenerator generator = HttpIo.jsonFactory().createGenerator(os)) {
+            generator.writeStartArray();
+            for (OtpService.BatchItemResult result : results) {
+                generator.writeStartObject();
+                generator.writeStringField("operationId", result.operationId());
+                generator.writeStringField("status", result.status());
+                if (result.error() != null) {
+                    generator.writeStringField("error", result.error());
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+    }
+    
+    private static OtpCode.DeliveryMethod parseDeliveryMethod(String value) {
+        try {
+            return value == null ? null : OtpCode.DeliveryMethod.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
     /**
      * Извлечение аутентифицированного пользователя из запроса
      */
@@ -157,50 +364,4 @@ public class UserController {
             throw new SecurityException("Invalid credentials");
         }
     }
-
-    /**
-     * Парсинг JSON тела запроса
-     */
-    private JsonNode parseRequestBody(HttpExchange exchange) throws IOException {
-        try {
-            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-            return objectMapper.readTree(body);
-        } catch (Exception e) {
-            logger.error("Error parsing request body", e);
-            throw new IOException("Invalid request format");
-        }
-    }
-
-    /**
-     * Валидация обязательных полей в JSON
-     */
-    private void validateRequiredFields(JsonNode node, String... fields) throws ValidationException {
-        Map<String, String> missing = new HashMap<>();
-        
-        for (String field : fields) {
-            if (!node.has(field)) {
-                missing.put(field, "Field is required");
-            }
-        }
-        
-        if (!missing.isEmpty()) {
-            Map<String, Object> errorDetails = new HashMap<>();
-            errorDetails.put("error", "Validation failed");
-            errorDetails.put("missing", missing);
-            throw new ValidationException(errorDetails);
-        }
-    }
-
-
-    private static class ValidationException extends Exception {
-        private final Map<String, Object> errorDetails;
-
-        public ValidationException(Map<String, Object> errorDetails) {
-            this.errorDetails = errorDetails;
-        }
-
-        public Map<String, Object> getErrorDetails() {
-            return errorDetails;
-        }
-    }
-}
\ No newline at end of file
+}
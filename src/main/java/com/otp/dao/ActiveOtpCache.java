@@ -0,0 +1,202 @@
+package com.otp.dao;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.otp.model.OtpCode;
+
+/**
+ * Кэш выданных OTP-кодов по operationId. Заполняется при выдаче кода; погашенный код
+ * остаётся в кэше со статусом USED, прочие смены статуса запись сбрасывают.
+ * Без БД погашение отвечает только для истёкшего кода и только при включённом
+ * otp.cache.precheck: погашение и перевыпуск на другом экземпляре сервиса этот кэш
+ * не видит, поэтому флаг допустим лишь при единственном экземпляре. Статус USED
+ * и владелец записи для погашения не используются — всё остальное проверяется в БД.
+ * Записи хранятся в порядке вставки; так как срок жизни у всех кодов одинаковый,
+ * это примерно порядок истечения, и вытеснение начинается с самых старых.
+ */
+public class ActiveOtpCache {
+    private final int entriesPerMinute;
+    private final int maxSize;
+    private final boolean precheckEnabled;
+
+    private final LinkedHashMap<String, OtpCode> byOperationId = new LinkedHashMap<>();
+    private final Map<Long, String> operationIdById = new HashMap<>();
+    private int capacity;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public ActiveOtpCache(Properties config) {
+        this.entriesPerMinute = Integer.parseInt(config.getProperty("otp.cache.entries_per_minute", "2000"));
+        this.maxSize = Integer.parseInt(config.getProperty("otp.cache.max_size", "100000"));
+        this.precheckEnabled = Boolean.parseBoolean(config.getProperty("otp.cache.precheck", "false"));
+        this.capacity = maxSize;
+    }
+
+    /**
+     * Размер кэша = ожидаемое число кодов, выданных за время их жизни, но не больше max_size
+     */
+    public synchronized void resize(int expiryMinutes) {
+        this.capacity = (int) Math.min(maxSize, (long) entriesPerMinute * Math.max(1, expiryMinutes));
+        evictOverflow();
+    }
+
+    public Optional<OtpCode> get(String operationId) {
+        OtpCode cached;
+        synchronized (this) {
+            cached = byOperationId.get(operationId);
+            if (cached != null && isExpired(cached, LocalDateTime.now())) {
+                removeEntry(operationId);
+                expirations.increment();
+                cached = null;
+            }
+            cached = cached == null ? null : copy(cached);
+        }
+        if (cached == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(cached);
+    }
+
+    /**
+     * Исход погашения, известный без БД; null — нужен запрос к БД.
+     * Отвечает только EXPIRED для своего истёкшего кода, как OtpCodeDao.consume.
+     */
+    public OtpCode.ConsumeResult precheckConsume(Long userId, String operationId) {
+        if (!precheckEnabled) {
+            return null;
+        }
+        boolean expired;
+        synchronized (this) {
+            OtpCode cached = byOperationId.get(operationId);
+            expired = cached != null && cached.getUserId().equals(userId) && isExpired(cached, LocalDateTime.now());
+        }
+        if (!expired) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return OtpCode.ConsumeResult.EXPIRED;
+    }
+
+    /**
+     * Код погашен: запись остаётся до истечения срока со статусом USED
+     */
+    public synchronized void markUsed(Long id) {
+        String operationId = operationIdById.get(id);
+        OtpCode cached = operationId == null ? null : byOperationId.get(operationId);
+        if (cached != null) {
+            cached.setStatus(OtpCode.Status.USED);
+            cached.setUsedAt(LocalDateTime.now());
+        }
+    }
+
+    /**
+     * Кэшируются только активные и не истёкшие коды
+     */
+    public void put(OtpCode otpCode) {
+        if (otpCode.getStatus() != OtpCode.Status.ACTIVE || isExpired(otpCode, LocalDateTime.now())) {
+            return;
+        }
+        OtpCode snapshot = copy(otpCode);
+        synchronized (this) {
+            removeEntry(snapshot.getOperationId());
+            byOperationId.put(snapshot.getOperationId(), snapshot);
+            operationIdById.put(snapshot.getId(), snapshot.getOperationId());
+            evictOverflow();
+        }
+    }
+
+    public synchronized void invalidate(Long id) {
+        String operationId = operationIdById.remove(id);
+        if (operationId != null) {
+            byOperationId.remove(operationId);
+        }
+    }
+
+    public synchronized void invalidateUser(Long userId) {
+        Iterator<OtpCode> iterator = byOperationId.values().iterator();
+        while (iterator.hasNext()) {
+            OtpCode cached = iterator.next();
+            if (cached.getUserId().equals(userId)) {
+                operationIdById.remove(cached.getId());
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void updateDeliveryStatus(Long id, OtpCode.DeliveryStatus status, int attempts, String error) {
+        String operationId = operationIdById.get(id);
+        OtpCode cached = operationId == null ? null : byOperationId.get(operationId);
+        if (cached != null) {
+            cached.setDeliveryStatus(status);
+            cached.setDeliveryAttempts(attempts);
+            cached.setDeliveryError(error);
+        }
+    }
+
+    private void removeEntry(String operationId) {
+        OtpCode removed = byOperationId.remove(operationId);
+        if (removed != null) {
+            operationIdById.remove(removed.getId());
+        }
+    }
+
+    /**
+     * Сначала выбрасываем истёкшие записи из головы, затем самые старые сверх лимита
+     */
+    private void evictOverflow() {
+        LocalDateTime now = LocalDateTime.now();
+        Iterator<OtpCode> iterator = byOperationId.values().iterator();
+        while (iterator.hasNext()) {
+            OtpCode eldest = iterator.next();
+            boolean expired = isExpired(eldest, now);
+            if (!expired && byOperationId.size() <= capacity) {
+                break;
+            }
+            iterator.remove();
+            operationIdById.remove(eldest.getId());
+            if (expired) {
+                expirations.increment();
+            } else {
+                evictions.increment();
+            }
+        }
+    }
+
+    private static boolean isExpired(OtpCode otpCode, LocalDateTime now) {
+        return now.isAfter(otpCode.getExpiresAt());
+    }
+
+    private static OtpCode copy(OtpCode source) {
+        OtpCode copy = new OtpCode(source.getUserId(), source.getOperationId(), source.getCode(), source.getStatus(),
+            source.getDeliveryMethod(), source.getCreatedAt(), source.getExpiresAt());
+        copy.setId(source.getId());
+        copy.setUsedAt(source.getUsedAt());
+        copy.setDeliveryStatus(source.getDeliveryStatus());
+        copy.setDeliveryAttempts(source.getDeliveryAttempts());
+        copy.setDeliveryError(source.getDeliveryError());
+        copy.setDeliveredAt(source.getDeliveredAt());
+        copy.setFailedAttempts(source.getFailedAttempts());
+        return copy;
+    }
+
+    // Метрики кэша
+    public synchronized int getSize() { return byOperationId.size(); }
+    public synchronized int getCapacity() { return capacity; }
+    public long getHitCount() { return hits.sum(); }
+    public long getMissCount() { return misses.sum(); }
+    public long getEvictionCount() { return evictions.sum(); }
+    public long getExpirationCount() { return expirations.sum(); }
+}
@@ -0,0 +1,416 @@
+package com.otp.dao;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Пул JDBC-соединений. DAO берут соединение на каждую операцию и возвращают его через close().
+ */
+public final class ConnectionPool implements DataSource, AutoCloseable {
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private final String name;
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long connectionTimeoutMs;
+    private final long maxLifetimeMs;
+    private final long leakDetectionThresholdMs;
+    private final long validationIntervalMs;
+    private final int validationTimeoutSeconds;
+
+    // Свободные соединения; берём с головы (LIFO), чтобы редко используемые старели и закрывались
+    private final LinkedBlockingDeque<PhysicalConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PhysicalConnection> borrowed = ConcurrentHashMap.newKeySet();
+    // Разрешение = право держать одно соединение, ограничивает размер пула сверху
+    private final Semaphore permits;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final AtomicInteger waitingThreads = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final ScheduledExecutorService housekeeper;
+
+    // Метрики
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder waitNanosTotal = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder leakCount = new LongAdder();
+
+    public ConnectionPool(String name, Properties config, String prefix) {
+        this.name = name;
+        this.url = config.getProperty("db.url");
+        this.username = config.getProperty("db.username");
+        this.password = config.getProperty("db.password");
+        this.minSize = Integer.parseInt(config.getProperty(prefix + ".min_size", "2"));
+        this.maxSize = Integer.parseInt(config.getProperty(prefix + ".max_size", "10"));
+        this.connectionTimeoutMs = Long.parseLong(config.getProperty(prefix + ".connection_timeout_ms", "5000"));
+        this.maxLifetimeMs = Long.parseLong(config.getProperty(prefix + ".max_lifetime_ms", "1800000"));
+        this.leakDetectionThresholdMs = Long.parseLong(config.getProperty(prefix + ".leak_detection_ms", "0"));
+        this.validationIntervalMs = Long.parseLong(config.getProperty(prefix + ".validation_interval_ms", "500"));
+        this.validationTimeoutSeconds = Integer.parseInt(config.getProperty(prefix + ".validation_timeout_s", "2"));
+
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+
+        this.permits = new Semaphore(maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "db-pool-" + name + "-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        fillToMinimum();
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 30, 30, TimeUnit.SECONDS);
+        if (leakDetectionThresholdMs > 0) {
+            long period = Math.max(1000, leakDetectionThresholdMs / 2);
+            housekeeper.scheduleWithFixedDelay(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        logger.info("Connection pool '{}' started (min={}, max={})", name, minSize, maxSize);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed.get()) {
+            throw new SQLException("Connection pool '" + name + "' is closed");
+        }
+
+        long start = System.nanoTime();
+        waitingThreads.incrementAndGet();
+        try {
+            if (!permits.tryAcquire(connectionTimeoutMs, TimeUnit.MILLISECONDS)) {
+                timeoutCount.increment();
+                throw new SQLException("Timed out after " + connectionTimeoutMs
+                    + " ms waiting for a connection from pool '" + name + "'");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        } finally {
+            waitingThreads.decrementAndGet();
+        }
+
+        try {
+            PhysicalConnection physical = takeValidConnection();
+            physical.borrowedAt = System.currentTimeMillis();
+            physical.borrowStack = leakDetectionThresholdMs > 0 ? new Exception("Connection borrowed here") : null;
+            physical.leakReported = false;
+            borrowed.add(physical);
+            recordWait(System.nanoTime() - start);
+            return physical.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pool uses configured credentials");
+    }
+
+    /**
+     * Отдельное соединение вне пула для долгоживущих задач (например, LISTEN).
+     * Закрывается вызывающим; в лимиты и метрики пула не входит.
+     */
+    public Connection openDedicatedConnection() throws SQLException {
+        return DriverManager.getConnection(url, username, password);
+    }
+
+    /**
+     * Свободное соединение из пула или новое, если свободных нет
+     */
+    private PhysicalConnection takeValidConnection() throws SQLException {
+        PhysicalConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            if (isUsable(candidate)) {
+                return candidate;
+            }
+            discard(candidate);
+        }
+        return createConnection();
+    }
+
+    private boolean isUsable(PhysicalConnection candidate) {
+        long now = System.currentTimeMillis();
+        if (candidate.isExpired(now)) {
+            return false;
+        }
+        // Недавно использованное соединение не проверяем, чтобы не делать лишний round-trip
+        if (now - candidate.lastUsedAt < validationIntervalMs) {
+            return true;
+        }
+        try {
+            if (candidate.raw.isValid(validationTimeoutSeconds)) {
+                return true;
+            }
+        } catch (SQLException e) {
+            logger.debug("Connection validation failed in pool '{}'", name, e);
+        }
+        validationFailures.increment();
+        return false;
+    }
+
+    private PhysicalConnection createConnection() throws SQLException {
+        Connection raw = DriverManager.getConnection(url, username, password);
+        totalConnections.incrementAndGet();
+        createdCount.increment();
+        return new PhysicalConnection(raw);
+    }
+
+    private void discard(PhysicalConnection physical) {
+        totalConnections.decrementAndGet();
+        try {
+            physical.raw.close();
+        } catch (SQLException e) {
+            logger.debug("Error closing connection in pool '{}'", name, e);
+        }
+    }
+
+    /**
+     * Возврат соединения в пул (вызывается из close() обёртки)
+     */
+    private void release(PhysicalConnection physical) {
+        borrowed.remove(physical);
+        try {
+            physical.lastUsedAt = System.currentTimeMillis();
+            boolean reusable = !closed.get()
+                && !physical.isExpired(physical.lastUsedAt)
+                && !physical.raw.isClosed()
+                && resetState(physical.raw);
+            if (reusable) {
+                idle.offerFirst(physical);
+            } else {
+                discard(physical);
+            }
+        } catch (SQLException e) {
+            discard(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean resetState(Connection raw) {
+        try {
+            if (!raw.getAutoCommit()) {
+                raw.rollback();
+                raw.setAutoCommit(true);
+            }
+            return true;
+        } catch (SQLException e) {
+            logger.warn("Failed to reset connection state in pool '{}', discarding", name, e);
+            return false;
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        borrowCount.increment();
+        waitNanosTotal.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    /**
+     * Закрытие состарившихся свободных соединений и добор до минимального размера
+     */
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+            for (PhysicalConnection physical : idle) {
+                if (physical.isExpired(now) && idle.remove(physical)) {
+                    discard(physical);
+                }
+            }
+            fillToMinimum();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Pool '{}': total={}, active={}, idle={}, waiting={}, avgWait={}ms, maxWait={}ms, timeouts={}",
+                    name, getTotalCount(), getActiveCount(), getIdleCount(), getWaitingCount(),
+                    getAverageWaitMillis(), getMaxWaitMillis(), getTimeoutCount());
+            }
+        } catch (Exception e) {
+            logger.error("Housekeeping failed for pool '{}'", name, e);
+        }
+    }
+
+    private void fillToMinimum() {
+        while (!closed.get() && totalConnections.get() < minSize) {
+            try {
+                idle.offerLast(createConnection());
+            } catch (SQLException e) {
+                logger.warn("Failed to pre-fill pool '{}'", name, e);
+                return;
+            }
+        }
+    }
+
+    private void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (PhysicalConnection physical : borrowed) {
+            if (!physical.leakReported && now - physical.borrowedAt > leakDetectionThresholdMs) {
+                physical.leakReported = true;
+                leakCount.increment();
+                logger.warn("Possible connection leak in pool '{}': held for {} ms",
+                    name, now - physical.borrowedAt, physical.borrowStack);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        housekeeper.shutdownNow();
+        PhysicalConnection physical;
+        while ((physical = idle.pollFirst()) != null) {
+            discard(physical);
+        }
+        logger.info("Connection pool '{}' closed ({} connections still borrowed)", name, borrowed.size());
+    }
+
+    // Метрики пула
+    public String getName() { return name; }
+    public int getTotalCount() { return totalConnections.get(); }
+    public int getIdleCount() { return idle.size(); }
+    public int getActiveCount() { return borrowed.size(); }
+    public int getWaitingCount() { return waitingThreads.get(); }
+    public int getMaxSize() { return maxSize; }
+    public long getBorrowCount() { return borrowCount.sum(); }
+    public long getTimeoutCount() { return timeoutCount.sum(); }
+    public long getValidationFailureCount() { return validationFailures.sum(); }
+    public long getCreatedCount() { return createdCount.sum(); }
+    public long getLeakCount() { return leakCount.sum(); }
+    public long getTotalWaitNanos() { return waitNanosTotal.sum(); }
+    public double getMaxWaitMillis() { return maxWaitNanos.get() / 1_000_000.0; }
+
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.sum();
+        return borrows == 0 ? 0 : waitNanosTotal.sum() / 1_000_000.0 / borrows;
+    }
+
+    // Остальные методы DataSource
+    @Override
+    public PrintWriter getLogWriter() { return null; }
+
+    @Override
+    public void setLogWriter(PrintWriter out) { }
+
+    @Override
+    public void setLoginTimeout(int seconds) { }
+
+    @Override
+    public int getLoginTimeout() { return 0; }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * Физическое соединение вместе с учётными данными пула
+     */
+    private final class PhysicalConnection {
+        private final Connection raw;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile long lastUsedAt = createdAt;
+        private volatile long borrowedAt;
+        private volatile Exception borrowStack;
+        private volatile boolean leakReported;
+
+        private PhysicalConnection(Connection raw) {
+            this.raw = raw;
+        }
+
+        private boolean isExpired(long now) {
+            return maxLifetimeMs > 0 && now - createdAt > maxLifetimeMs;
+        }
+
+        /**
+         * Обёртка, которую получает DAO: close() возвращает соединение в пул
+         */
+        private Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new HandleInvocationHandler(this));
+        }
+    }
+
+    private final class HandleInvocationHandler implements InvocationHandler {
+        private final PhysicalConnection physical;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private HandleInvocationHandler(PhysicalConnection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (released.compareAndSet(false, true)) {
+                        release(physical);
+                    }
+                    return null;
+                case "isClosed":
+                    return released.get() || physical.raw.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + name + "]" + physical.raw;
+                default:
+                    if (released.get()) {
+                        throw new SQLException("Connection has already been returned to the pool");
+                    }
+                    try {
+                        return method.invoke(physical.raw, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.otp.dao;
+
+import com.otp.metrics.MetricsRegistry;
+import com.otp.metrics.Timer;
+
+/**
+ * Таймеры запросов DAO: db_query_duration_seconds{dao, method}
+ */
+final class DaoMetrics {
+    private DaoMetrics() {
+    }
+
+    static Timer queryTimer(String dao, String method) {
+        return MetricsRegistry.timer("db_query_duration_seconds", "DAO query latency by method",
+            "dao", dao, "method", method);
+    }
+}
@@ -0,0 +1,82 @@
+package com.otp.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import com.otp.model.JwtToken;
+
+/**
+ * Таблица jwt_tokens хранит только отозванные токены: выданные токены не пишутся,
+ * чтобы логин не требовал записи в БД.
+ */
+public class JwtTokenDao {
+    private final DataSource dataSource;
+    
+    public JwtTokenDao(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+    
+    /**
+     * Отзыв токена. Возвращает момент отзыва по часам БД
+     */
+    public LocalDateTime revoke(JwtToken token) throws SQLException {
+        String sql = "INSERT INTO jwt_tokens (jti, user_id, token, expires_at, revoked, revoked_at) " +
+                     "VALUES (?, ?, ?, ?, TRUE, CURRENT_TIMESTAMP) " +
+                     "ON CONFLICT (jti) DO UPDATE SET revoked = TRUE, " +
+                     "revoked_at = COALESCE(jwt_tokens.revoked_at, EXCLUDED.revoked_at) " +
+                     "RETURNING revoked_at";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, token.getJti());
+            stmt.setLong(2, token.getUserId());
+            stmt.setString(3, token.getToken());
+            stmt.setTimestamp(4, Timestamp.valueOf(token.getExpiresAt()));
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getTimestamp(1).toLocalDateTime();
+            }
+        }
+    }
+    
+    /**
+     * Отозванные и ещё не истёкшие токены, отозванные после указанного момента
+     */
+    public List<JwtToken> findRevokedSince(LocalDateTime since) throws SQLException {
+        String sql = "SELECT jti, user_id, expires_at, revoked_at FROM jwt_tokens " +
+                     "WHERE revoked AND revoked_at > ? AND expires_at > CURRENT_TIMESTAMP " +
+                     "ORDER BY revoked_at";
+        List<JwtToken> tokens = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setTimestamp(1, Timestamp.valueOf(since));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    JwtToken token = new JwtToken();
+                    token.setJti(rs.getString("jti"));
+                    token.setUserId(rs.getLong("user_id"));
+                    token.setExpiresAt(rs.getTimestamp("expires_at").toLocalDateTime());
+                    token.setRevoked(true);
+                    token.setRevokedAt(rs.getTimestamp("revoked_at").toLocalDateTime());
+                    tokens.add(token);
+                }
+            }
+        }
+        return tokens;
+    }
+    
+    public int deleteExpired() throws SQLException {
+        String sql = "DELETE FROM jwt_tokens WHERE expires_at < CURRENT_TIMESTAMP";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            return stmt.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.otp.dao;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+
+/**
+ * Архив закрытых OTP-кодов: таблица otp_codes_archive, секционированная по дням created_at.
+ * Имена секций — otp_codes_archive_pYYYYMMDD.
+ */
+public class OtpArchiveDao {
+    private static final String PARTITION_PREFIX = "otp_codes_archive_p";
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private static final String COLUMNS = "id, user_id, operation_id, code, status, delivery_method, created_at, " +
+                                          "expires_at, used_at, delivery_status, delivery_attempts, delivered_at";
+
+    private final DataSource dataSource;
+    
+    public OtpArchiveDao(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+    
+    public void createPartition(LocalDate day) throws SQLException {
+        String sql = "CREATE TABLE IF NOT EXISTS " + partitionName(day) + " PARTITION OF otp_codes_archive " +
+                     "FOR VALUES FROM ('" + day + "') TO ('" + day.plusDays(1) + "')";
+        try (Connection connection = dataSource.getConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+    
+    /**
+     * Дни, для которых есть секции архива
+     */
+    public List<LocalDate> findPartitions() throws SQLException {
+        String sql = "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                     "WHERE i.inhparent = 'otp_codes_archive'::regclass ORDER BY c.relname";
+        List<LocalDate> days = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                String name = rs.getString(1);
+                if (name.startsWith(PARTITION_PREFIX)) {
+                    days.add(LocalDate.parse(name.substring(PARTITION_PREFIX.length()), PARTITION_SUFFIX));
+                }
+            }
+        }
+        return days;
+    }
+    
+    /**
+     * Перенос порции закрытых кодов из otp_codes в архив одним запросом. Код закрыт,
+     * если срок его действия истёк раньше closedBefore (использованный, истёкший или
+     * просто просроченный активный). Коды, созданные раньше archiveFrom, в архив
+     * уже не попадают и просто удаляются.
+     */
+    public int archiveBatch(LocalDateTime closedBefore, LocalDateTime archiveFrom, int limit) throws SQLException {
+        String sql = "WITH moved AS (" +
+                     "    DELETE FROM otp_codes WHERE id IN (" +
+                     "        SELECT id FROM otp_codes WHERE expires_at < ? " +
+                     "        ORDER BY expires_at LIMIT ? FOR UPDATE SKIP LOCKED) " +
+                     "    RETURNING *" +
+                     "), archived AS (" +
+                     "    INSERT INTO otp_codes_archive (" + COLUMNS + ") " +
+                     "    SELECT id, user_id, operation_id, code, status, delivery_method, COALESCE(created_at, expires_at), " +
+                     "        expires_at, used_at, delivery_status, delivery_attempts, delivered_at " +
+                     "    FROM moved WHERE COALESCE(created_at, expires_at) >= ?" +
+                     ") SELECT COUNT(*) FROM moved";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setTimestamp(1, Timestamp.valueOf(closedBefore));
+            stmt.setInt(2, limit);
+            stmt.setTimestamp(3, Timestamp.valueOf(archiveFrom));
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+    
+    /**
+     * Выгрузка секции в CSV потоком через COPY, без загрузки строк в память
+     */
+    public long exportPartition(LocalDate day, OutputStream out) throws SQLException, IOException {
+        String sql = "COPY " + partitionName(day) + " (" + COLUMNS + ", archived_at) TO STDOUT WITH (FORMAT csv, HEADER)";
+        try (Connection connection = dataSource.getConnection()) {
+            return connection.unwrap(PGConnection.class).getCopyAPI().copyOut(sql, out);
+        }
+    }
+    
+    /**
+     * Отсоединение и удаление секции в одной транзакции
+     */
+    public void dropPartition(LocalDate day) throws SQLException {
+        String name = partitionName(day);
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE otp_codes_archive DETACH PARTITION " + name);
+                stmt.execute("DROP TABLE " + name);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+    
+    /**
+     * Удаление порции записей истории, заменённых раньше указанного момента
+     */
+    public int deleteHistoryBatch(LocalDateTime supersededBefore, int limit) throws SQLException {
+        String sql = "DELETE FROM otp_code_history WHERE id IN (" +
+                     "SELECT id FROM otp_code_history WHERE superseded_at < ? LIMIT ?)";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setTimestamp(1, Timestamp.valueOf(supersededBefore));
+            stmt.setInt(2, limit);
+            return stmt.executeUpdate();
+        }
+    }
+    
+    private static String partitionName(LocalDate day) {
+        return PARTITION_PREFIX + day.format(PARTITION_SUFFIX);
+    }
+}
@@ -7,26 +7,92 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
+import javax.sql.DataSource;
+
+import com.otp.metrics.Timer;
 import com.otp.model.OtpCode;
 
 public class OtpCodeDao {
-    private final Connection connection;
+    // Статус с учётом срока: активный код с истёкшим сроком считается EXPIRED и без записи в БД
+    private static final String SELECT_WITH_EFFECTIVE_STATUS =
+        "SELECT *, CASE WHEN status = 'ACTIVE' AND expires_at <= CURRENT_TIMESTAMP THEN 'EXPIRED' ELSE status END AS effective_status " +
+        "FROM otp_codes ";
+    
+    private static final String UPSERT_INSERT =
+        "INSERT INTO otp_codes (user_id, operation_id, code, status, delivery_method, created_at, expires_at, delivery_status) ";
+    // Перевыпуск сбрасывает код, срок и состояние доставки; чужую операцию не трогает
+    private static final String UPSERT_CONFLICT =
+        "ON CONFLICT (operation_id) DO UPDATE SET " +
+        "code = EXCLUDED.code, status = EXCLUDED.status, delivery_method = EXCLUDED.delivery_method, " +
+        "created_at = EXCLUDED.created_at, expires_at = EXCLUDED.expires_at, used_at = NULL, " +
+        "delivery_status = EXCLUDED.delivery_status, delivery_attempts = 0, delivery_error = NULL, delivered_at = NULL, " +
+        "failed_attempts = 0 " +
+        "WHERE otp_codes.user_id = EXCLUDED.user_id ";
+    
+    // Время запросов по методам
+    private static final Timer SAVE_TIMER = DaoMetrics.queryTimer("OtpCodeDao", "save");
+    private static final Timer UPSERT_TIMER = DaoMetrics.queryTimer("OtpCodeDao", "upsert");
+    private static final Timer UPSERT_BATCH_TIMER = DaoMetrics.queryTimer("OtpCodeDao", "upsertBatch");
+    private static final Timer FIND_BY_OPERATION_ID_TIMER = DaoMetrics.queryTimer("OtpCodeDao", "findByOperationId");
+    private static final Timer UPDATE_STATUS_TIMER = DaoMetrics.queryTimer("OtpCodeDao", "updateStatus");
+    private static final Timer CONSUME_TIMER = DaoMetrics.queryTimer("OtpCodeDao", "consume");
+    private static final Timer CONSUME_BATCH_TIMER = DaoMetrics.queryTimer("OtpCodeDao", "consumeBatch");
+    private static final Timer FIND_BY_USER_ID_TIMER = DaoMetrics.queryTimer("OtpCodeDao", "findByUserId");
+    private static final Timer UPDATE_DELIVERY_STATUS_TIMER = DaoMetrics.queryTimer("OtpCodeDao", "updateDeliveryStatus");
+    private static final Timer FIND_UNDELIVERED_TIMER = DaoMetrics.queryTimer("OtpCodeDao", "findUndelivered");
+    private static final Timer EXPIRE_BATCH_TIMER = DaoMetrics.queryTimer("OtpCodeDao", "expireBatch");
+    private static final Timer EXPIRY_LAG_MILLIS_TIMER = DaoMetrics.queryTimer("OtpCodeDao", "expiryLagMillis");
+    private static final Timer DELETE_BY_USER_ID_TIMER = DaoMetrics.queryTimer("OtpCodeDao", "deleteByUserId");
+    
+    private final DataSource dataSource;
+    private final ActiveOtpCache cache;
+    private final boolean historyEnabled;
+    private final boolean lazyExpiry;
+    // Столько неверных попыток гасят код (переводят в EXPIRED); 0 — без ограничения
+    private final int maxFailedAttempts;
     
-    public OtpCodeDao(Connection connection) {
-        this.connection = connection;
+    public OtpCodeDao(DataSource dataSource) {
+        this(dataSource, null, false, false);
+    }
+    
+    public OtpCodeDao(DataSource dataSource, ActiveOtpCache cache) {
+        this(dataSource, cache, false, false);
+    }
+    
+    /**
+     * lazyExpiry — истечение вычисляется при чтении, статус EXPIRED в БД не пишется
+     */
+    public OtpCodeDao(DataSource dataSource, ActiveOtpCache cache, boolean historyEnabled, boolean lazyExpiry) {
+        this(dataSource, cache, historyEnabled, lazyExpiry, 0);
+    }
+    
+    public OtpCodeDao(DataSource dataSource, ActiveOtpCache cache, boolean historyEnabled, boolean lazyExpiry,
+                      int maxFailedAttempts) {
+        this.dataSource = dataSource;
+        this.cache = cache;
+        this.historyEnabled = historyEnabled;
+        this.lazyExpiry = lazyExpiry;
+        this.maxFailedAttempts = maxFailedAttempts;
     }
     
     public void save(OtpCode otpCode) throws SQLException {
-        String sql = "INSERT INTO otp_codes (user_id, operation_id, code, status, delivery_method, expires_at) VALUES (?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        String sql = "INSERT INTO otp_codes (user_id, operation_id, code, status, delivery_method, expires_at, delivery_status) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setLong(1, otpCode.getUserId());
             stmt.setString(2, otpCode.getOperationId());
             stmt.setString(3, otpCode.getCode());
             stmt.setString(4, otpCode.getStatus().name());
             stmt.setString(5, otpCode.getDeliveryMethod().name());
             stmt.setTimestamp(6, Timestamp.valueOf(otpCode.getExpiresAt()));
+            stmt.setString(7, otpCode.getDeliveryStatus().name());
             
             stmt.executeUpdate();
             
@@ -35,44 +101,518 @@ public class OtpCodeDao {
                     otpCode.setId(keys.getLong(1));
                 }
             }
+        } finally {
+            SAVE_TIMER.recordSince(start);
+        }
+        
+        if (cache != null) {
+            cache.put(otpCode);
+        }
+    }
+    
+    /**
+     * Выдача кода для операции одним запросом: новая строка или сброс существующей
+     * (код, статус, срок, канал и состояние доставки). Чужая операция не
+     * перезаписывается — тогда возвращается false. При включённой истории
+     * заменённый код копируется в otp_code_history тем же запросом.
+     */
+    public boolean upsert(OtpCode otpCode) throws SQLException {
+        String upsert = UPSERT_INSERT + "VALUES (?, ?, ?, ?, ?, ?, ?, ?) " + UPSERT_CONFLICT + "RETURNING id";
+        String sql = historyEnabled
+            ? withHistory("SELECT * FROM otp_codes WHERE operation_id = ? AND user_id = ? FOR UPDATE", upsert, "id")
+            : upsert;
+        
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int i = 1;
+            if (historyEnabled) {
+                stmt.setString(i++, otpCode.getOperationId());
+                stmt.setLong(i++, otpCode.getUserId());
+            }
+            stmt.setLong(i++, otpCode.getUserId());
+            stmt.setString(i++, otpCode.getOperationId());
+            stmt.setString(i++, otpCode.getCode());
+            stmt.setString(i++, otpCode.getStatus().name());
+            stmt.setString(i++, otpCode.getDeliveryMethod().name());
+            stmt.setTimestamp(i++, Timestamp.valueOf(otpCode.getCreatedAt()));
+            stmt.setTimestamp(i++, Timestamp.valueOf(otpCode.getExpiresAt()));
+            stmt.setString(i, otpCode.getDeliveryStatus().name());
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return false;
+                }
+                otpCode.setId(rs.getLong(1));
+            }
+        } finally {
+            UPSERT_TIMER.recordSince(start);
+        }
+        
+        if (cache != null) {
+            cache.put(otpCode);
+        }
+        return true;
+    }
+    
+    /**
+     * Пакетная выдача кодов одним запросом через unnest массивов. Возвращает
+     * operationId выданных кодов; операции других пользователей пропускаются.
+     * operationId в пакете должны быть уникальны.
+     */
+    public List<String> upsertBatch(List<OtpCode> otpCodes) throws SQLException {
+        if (otpCodes.isEmpty()) {
+            return List.of();
+        }
+        String upsert = UPSERT_INSERT +
+                        "SELECT * FROM unnest(?::int[], ?::varchar[], ?::varchar[], ?::varchar[], ?::varchar[], ?::timestamp[], ?::timestamp[], ?::varchar[]) " +
+                        UPSERT_CONFLICT + "RETURNING id, operation_id";
+        String sql = historyEnabled
+            ? withHistory("SELECT o.* FROM otp_codes o " +
+                          "JOIN unnest(?::varchar[], ?::int[]) AS i(operation_id, user_id) " +
+                          "ON o.operation_id = i.operation_id AND o.user_id = i.user_id FOR UPDATE OF o",
+                          upsert, "id, operation_id")
+            : upsert;
+        
+        int size = otpCodes.size();
+        Long[] userIds = new Long[size];
+        String[] operationIds = new String[size];
+        String[] codes = new String[size];
+        String[] statuses = new String[size];
+        String[] methods = new String[size];
+        Timestamp[] createdAt = new Timestamp[size];
+        Timestamp[] expiresAt = new Timestamp[size];
+        String[] deliveryStatuses = new String[size];
+        Map<String, OtpCode> byOperationId = new HashMap<>();
+        for (int n = 0; n < size; n++) {
+            OtpCode otpCode = otpCodes.get(n);
+            userIds[n] = otpCode.getUserId();
+            operationIds[n] = otpCode.getOperationId();
+            codes[n] = otpCode.getCode();
+            statuses[n] = otpCode.getStatus().name();
+            methods[n] = otpCode.getDeliveryMethod().name();
+            createdAt[n] = Timestamp.valueOf(otpCode.getCreatedAt());
+            expiresAt[n] = Timestamp.valueOf(otpCode.getExpiresAt());
+            deliveryStatuses[n] = otpCode.getDeliveryStatus().name();
+            byOperationId.put(otpCode.getOperationId(), otpCode);
+        }
+        
+        List<String> issued = new ArrayList<>(size);
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int i = 1;
+            if (historyEnabled) {
+                stmt.setArray(i++, connection.createArrayOf("varchar", operationIds));
+                stmt.setArray(i++, connection.createArrayOf("int8", userIds));
+            }
+            stmt.setArray(i++, connection.createArrayOf("int8", userIds));
+            stmt.setArray(i++, connection.createArrayOf("varchar", operationIds));
+            stmt.setArray(i++, connection.createArrayOf("varchar", codes));
+            stmt.setArray(i++, connection.createArrayOf("varchar", statuses));
+            stmt.setArray(i++, connection.createArrayOf("varchar", methods));
+            stmt.setArray(i++, connection.createArrayOf("timestamp", createdAt));
+            stmt.setArray(i++, connection.createArrayOf("timestamp", expiresAt));
+            stmt.setArray(i, connection.createArrayOf("varchar", deliveryStatuses));
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    OtpCode otpCode = byOperationId.get(rs.getString("operation_id"));
+                    otpCode.setId(rs.getLong("id"));
+                    issued.add(otpCode.getOperationId());
+                    if (cache != null) {
+                        cache.put(otpCode);
+                    }
+                }
+            }
+        } finally {
+            UPSERT_BATCH_TIMER.recordSince(start);
         }
+        return issued;
+    }
+    
+    /**
+     * Обёртка выдачи кода, копирующая заменяемые строки в otp_code_history тем же запросом
+     */
+    private static String withHistory(String previousSql, String upsertSql, String returning) {
+        return "WITH previous AS (" + previousSql + "), upserted AS (" + upsertSql + "), history AS (" +
+               "    INSERT INTO otp_code_history (otp_code_id, user_id, operation_id, code, status, delivery_method, " +
+               "        delivery_status, delivery_attempts, created_at, expires_at, used_at) " +
+               "    SELECT id, user_id, operation_id, code, " +
+               "        CASE WHEN status = 'ACTIVE' AND expires_at <= CURRENT_TIMESTAMP THEN 'EXPIRED' ELSE status END, delivery_method, " +
+               "        delivery_status, delivery_attempts, created_at, expires_at, used_at FROM previous" +
+               ") SELECT " + returning + " FROM upserted";
     }
     
     public Optional<OtpCode> findByOperationId(String operationId) throws SQLException {
-        String sql = "SELECT * FROM otp_codes WHERE operation_id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        if (cache != null) {
+            Optional<OtpCode> cached = cache.get(operationId);
+            if (cached.isPresent()) {
+                return cached;
+            }
+        }
+        
+        String sql = SELECT_WITH_EFFECTIVE_STATUS + "WHERE operation_id = ?";
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setString(1, operationId);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return Optional.of(mapOtpCode(rs));
+                    OtpCode otpCode = mapOtpCode(rs);
+                    if (cache != null) {
+                        cache.put(otpCode);
+                    }
+                    return Optional.of(otpCode);
                 }
             }
+        } finally {
+            FIND_BY_OPERATION_ID_TIMER.recordSince(start);
         }
         return Optional.empty();
     }
     
     public void updateStatus(Long id, OtpCode.Status status) throws SQLException {
         String sql = "UPDATE otp_codes SET status = ?, used_at = ? WHERE id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setString(1, status.name());
             stmt.setTimestamp(2, status == OtpCode.Status.USED ? Timestamp.valueOf(LocalDateTime.now()) : null);
             stmt.setLong(3, id);
             stmt.executeUpdate();
+        } finally {
+            UPDATE_STATUS_TIMER.recordSince(start);
+            if (cache != null) {
+                cache.invalidate(id);
+            }
         }
     }
     
-    public int expireOldCodes() throws SQLException {
-        String sql = "UPDATE otp_codes SET status = 'EXPIRED' WHERE status = 'ACTIVE' AND expires_at < CURRENT_TIMESTAMP";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+    /**
+     * Погашение кода одним запросом. UPDATE с условиями на саму строку атомарен:
+     * из двух параллельных попыток код погасит только одна, вторая после ожидания
+     * блокировки перепроверит условия и ничего не изменит. Истёкший код в том же
+     * запросе помечается EXPIRED (в ленивом режиме — нет). Неверный код увеличивает
+     * failed_attempts, на последней разрешённой попытке код гасится. Исходное состояние
+     * строки (снимок на начало запроса) нужно только для причины отказа. Код другого
+     * пользователя не виден (NOT_FOUND) и его счётчик неверных попыток не растёт.
+     * Истёкший код, известный кэшу, отклоняется без запроса (см. ActiveOtpCache).
+     */
+    public OtpCode.ConsumeResult consume(Long userId, String operationId, String code) throws SQLException {
+        if (cache != null) {
+            OtpCode.ConsumeResult cached = cache.precheckConsume(userId, operationId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        String sql = "WITH target AS (" +
+                     "    SELECT id, status, failed_attempts, expires_at <= CURRENT_TIMESTAMP AS expired, code = ? AS code_matches " +
+                     "    FROM otp_codes WHERE operation_id = ? AND user_id = ?" +
+                     "), consumed AS (" +
+                     "    UPDATE otp_codes SET status = 'USED', used_at = CURRENT_TIMESTAMP " +
+                     "    WHERE operation_id = ? AND user_id = ? AND status = 'ACTIVE' AND expires_at > CURRENT_TIMESTAMP AND code = ? " +
+                     "    RETURNING id" +
+                     "), failed AS (" +
+                     "    UPDATE otp_codes SET failed_attempts = failed_attempts + 1, " +
+                     "        status = CASE WHEN failed_attempts + 1 >= ? THEN 'EXPIRED' ELSE status END " +
+                     "    WHERE operation_id = ? AND user_id = ? AND status = 'ACTIVE' AND expires_at > CURRENT_TIMESTAMP AND code <> ? " +
+                     "    RETURNING failed_attempts" +
+                     ")" +
+                     (lazyExpiry ? " " :
+                     ", expired AS (" +
+                     "    UPDATE otp_codes SET status = 'EXPIRED' " +
+                     "    WHERE operation_id = ? AND user_id = ? AND status = 'ACTIVE' AND expires_at <= CURRENT_TIMESTAMP " +
+                     "    RETURNING id" +
+                     ") ") +
+                     "SELECT t.id, t.status, t.expired, t.code_matches, " +
+                     "       EXISTS (SELECT 1 FROM consumed) AS consumed, " +
+                     "       COALESCE((SELECT failed_attempts FROM failed), t.failed_attempts) AS failed_attempts " +
+                     "FROM (SELECT 1) one LEFT JOIN target t ON TRUE";
+        Long id = null;
+        OtpCode.ConsumeResult result = null;
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, code);
+            stmt.setString(2, operationId);
+            stmt.setLong(3, userId);
+            stmt.setString(4, operationId);
+            stmt.setLong(5, userId);
+            stmt.setString(6, code);
+            stmt.setInt(7, attemptLimit());
+            stmt.setString(8, operationId);
+            stmt.setLong(9, userId);
+            stmt.setString(10, code);
+            if (!lazyExpiry) {
+                stmt.setString(11, operationId);
+                stmt.setLong(12, userId);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                id = rs.getObject("id", Long.class);
+                result = toConsumeResult(rs, id);
+                return result;
+            }
+        } finally {
+            CONSUME_TIMER.recordSince(start);
+            if (cache != null && id != null) {
+                updateCache(id, result);
+            }
+        }
+    }
+    
+    /**
+     * Пакетное погашение тем же способом, что и consume, одним запросом. Результаты
+     * возвращаются в порядке входа; operationId в пакете должны быть уникальны.
+     * Коды других пользователей не видны (NOT_FOUND). Элементы, исход которых
+     * известен кэшу, в запрос не попадают.
+     */
+    public List<OtpCode.ConsumeResult> consumeBatch(Long userId, List<String> operationIds, List<String> codes) throws SQLException {
+        if (operationIds.isEmpty()) {
+            return List.of();
+        }
+        if (cache != null) {
+            OtpCode.ConsumeResult[] results = new OtpCode.ConsumeResult[operationIds.size()];
+            List<String> pendingOperationIds = new ArrayList<>(operationIds.size());
+            List<String> pendingCodes = new ArrayList<>(operationIds.size());
+            for (int i = 0; i < results.length; i++) {
+                results[i] = cache.precheckConsume(userId, operationIds.get(i));
+                if (results[i] == null) {
+                    pendingOperationIds.add(operationIds.get(i));
+                    pendingCodes.add(codes.get(i));
+                }
+            }
+            if (pendingOperationIds.size() < results.length) {
+                List<OtpCode.ConsumeResult> consumed = pendingOperationIds.isEmpty()
+                    ? List.of()
+                    : queryConsumeBatch(userId, pendingOperationIds, pendingCodes);
+                for (int i = 0, next = 0; i < results.length; i++) {
+                    if (results[i] == null) {
+                        results[i] = consumed.get(next++);
+                    }
+                }
+                return List.of(results);
+            }
+        }
+        return queryConsumeBatch(userId, operationIds, codes);
+    }
+    
+    private List<OtpCode.ConsumeResult> queryConsumeBatch(Long userId, List<String> operationIds, List<String> codes) throws SQLException {
+        String sql = "WITH input AS (" +
+                     "    SELECT i.*, ?::bigint AS user_id " +
+                     "    FROM unnest(?::varchar[], ?::varchar[]) WITH ORDINALITY AS i(operation_id, code, ord)" +
+                     "), target AS (" +
+                     "    SELECT i.ord, o.id, o.status, o.failed_attempts, o.expires_at <= CURRENT_TIMESTAMP AS expired, o.code = i.code AS code_matches " +
+                     "    FROM input i LEFT JOIN otp_codes o ON o.operation_id = i.operation_id AND o.user_id = i.user_id" +
+                     "), consumed AS (" +
+                     "    UPDATE otp_codes o SET status = 'USED', used_at = CURRENT_TIMESTAMP FROM input i " +
+                     "    WHERE o.operation_id = i.operation_id AND o.user_id = i.user_id AND o.code = i.code " +
+                     "      AND o.status = 'ACTIVE' AND o.expires_at > CURRENT_TIMESTAMP " +
+                     "    RETURNING o.id" +
+                     "), failed AS (" +
+                     "    UPDATE otp_codes o SET failed_attempts = o.failed_attempts + 1, " +
+                     "        status = CASE WHEN o.failed_attempts + 1 >= ? THEN 'EXPIRED' ELSE o.status END " +
+                     "    FROM input i " +
+                     "    WHERE o.operation_id = i.operation_id AND o.user_id = i.user_id AND o.code <> i.code " +
+                     "      AND o.status = 'ACTIVE' AND o.expires_at > CURRENT_TIMESTAMP " +
+                     "    RETURNING o.id, o.failed_attempts" +
+                     ")" +
+                     (lazyExpiry ? " " :
+                     ", expired AS (" +
+                     "    UPDATE otp_codes o SET status = 'EXPIRED' FROM input i " +
+                     "    WHERE o.operation_id = i.operation_id AND o.user_id = i.user_id AND o.status = 'ACTIVE' AND o.expires_at <= CURRENT_TIMESTAMP " +
+                     "    RETURNING o.id" +
+                     ") ") +
+                     "SELECT t.id, t.status, t.expired, t.code_matches, " +
+                     "       t.id IN (SELECT id FROM consumed) AS consumed, " +
+                     "       COALESCE(f.failed_attempts, t.failed_attempts) AS failed_attempts " +
+                     "FROM target t LEFT JOIN failed f ON f.id = t.id ORDER BY t.ord";
+        List<OtpCode.ConsumeResult> results = new ArrayList<>(operationIds.size());
+        Map<Long, OtpCode.ConsumeResult> touched = new HashMap<>();
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, userId);
+            stmt.setArray(2, connection.createArrayOf("varchar", operationIds.toArray()));
+            stmt.setArray(3, connection.createArrayOf("varchar", codes.toArray()));
+            stmt.setInt(4, attemptLimit());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Long id = rs.getObject("id", Long.class);
+                    OtpCode.ConsumeResult result = toConsumeResult(rs, id);
+                    if (id != null) {
+                        touched.put(id, result);
+                    }
+                    results.add(result);
+                }
+            }
+        } finally {
+            CONSUME_BATCH_TIMER.recordSince(start);
+            if (cache != null) {
+                touched.forEach(this::updateCache);
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Погашенный код помечается в кэше; после неверного кода запись остаётся активной,
+     * после прочих исходов (погашен лимитом попыток, истёк, погашен другим узлом) сбрасывается
+     */
+    private void updateCache(Long id, OtpCode.ConsumeResult result) {
+        if (result == OtpCode.ConsumeResult.VALID) {
+            cache.markUsed(id);
+        } else if (result != OtpCode.ConsumeResult.INVALID_CODE) {
+            cache.invalidate(id);
+        }
+    }
+    
+    private int attemptLimit() {
+        return maxFailedAttempts > 0 ? maxFailedAttempts : Integer.MAX_VALUE;
+    }
+    
+    private OtpCode.ConsumeResult toConsumeResult(ResultSet rs, Long id) throws SQLException {
+        if (id == null) {
+            return OtpCode.ConsumeResult.NOT_FOUND;
+        }
+        if (rs.getBoolean("consumed")) {
+            return OtpCode.ConsumeResult.VALID;
+        }
+        // Погашен этой или одной из прежних неверных попыток
+        if (maxFailedAttempts > 0 && rs.getInt("failed_attempts") >= maxFailedAttempts) {
+            return OtpCode.ConsumeResult.TOO_MANY_ATTEMPTS;
+        }
+        if (!OtpCode.Status.ACTIVE.name().equals(rs.getString("status"))) {
+            return OtpCode.ConsumeResult.NOT_ACTIVE;
+        }
+        if (rs.getBoolean("expired")) {
+            return OtpCode.ConsumeResult.EXPIRED;
+        }
+        if (!rs.getBoolean("code_matches")) {
+            return OtpCode.ConsumeResult.INVALID_CODE;
+        }
+        // Код верный, но строку успел погасить параллельный запрос
+        return OtpCode.ConsumeResult.NOT_ACTIVE;
+    }
+    
+    /**
+     * Последние коды пользователя с фактическим статусом (для администратора)
+     */
+    public List<OtpCode> findByUserId(Long userId, int limit) throws SQLException {
+        String sql = SELECT_WITH_EFFECTIVE_STATUS + "WHERE user_id = ? ORDER BY created_at DESC LIMIT ?";
+        List<OtpCode> codes = new ArrayList<>();
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, userId);
+            stmt.setInt(2, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    codes.add(mapOtpCode(rs));
+                }
+            }
+        } finally {
+            FIND_BY_USER_ID_TIMER.recordSince(start);
+        }
+        return codes;
+    }
+    
+    /**
+     * Запись результата доставки. Условие по коду отсекает запоздавшие обновления
+     * от доставки прежнего кода, если операцию успели перевыпустить; тогда
+     * возвращается false.
+     */
+    public boolean updateDeliveryStatus(Long id, String code, OtpCode.DeliveryStatus status, int attempts, String error) throws SQLException {
+        String sql = "UPDATE otp_codes SET delivery_status = ?, delivery_attempts = ?, delivery_error = ?, delivered_at = ? WHERE id = ? AND code = ?";
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, status.name());
+            stmt.setInt(2, attempts);
+            stmt.setString(3, error != null && error.length() > 500 ? error.substring(0, 500) : error);
+            stmt.setTimestamp(4, status == OtpCode.DeliveryStatus.SENT ? Timestamp.valueOf(LocalDateTime.now()) : null);
+            stmt.setLong(5, id);
+            stmt.setString(6, code);
+            if (stmt.executeUpdate() == 0) {
+                return false;
+            }
+        } finally {
+            UPDATE_DELIVERY_STATUS_TIMER.recordSince(start);
+        }
+        
+        if (cache != null) {
+            cache.updateDeliveryStatus(id, status, attempts, error);
+        }
+        return true;
+    }
+    
+    /**
+     * Активные коды, доставка которых не завершилась (например, из-за перезапуска сервиса)
+     */
+    public List<OtpCode> findUndelivered() throws SQLException {
+        String sql = SELECT_WITH_EFFECTIVE_STATUS + "WHERE delivery_status IN ('PENDING', 'RETRYING') AND status = 'ACTIVE' AND expires_at > CURRENT_TIMESTAMP";
+        List<OtpCode> codes = new ArrayList<>();
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                codes.add(mapOtpCode(rs));
+            }
+        } finally {
+            FIND_UNDELIVERED_TIMER.recordSince(start);
+        }
+        return codes;
+    }
+    
+    /**
+     * Перевод в EXPIRED не более limit просроченных кодов. Кандидаты берутся по
+     * частичному индексу активных кодов, строки, занятые запросами, пропускаются.
+     */
+    public int expireBatch(int limit) throws SQLException {
+        String sql = "UPDATE otp_codes SET status = 'EXPIRED' WHERE id IN (" +
+                     "SELECT id FROM otp_codes WHERE status = 'ACTIVE' AND expires_at < CURRENT_TIMESTAMP " +
+                     "ORDER BY expires_at LIMIT ? FOR UPDATE SKIP LOCKED)";
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, limit);
             return stmt.executeUpdate();
+        } finally {
+            EXPIRE_BATCH_TIMER.recordSince(start);
+        }
+    }
+    
+    /**
+     * Насколько отстаёт истечение: возраст самого старого просроченного, но ещё активного кода в мс
+     */
+    public long expiryLagMillis() throws SQLException {
+        String sql = "SELECT EXTRACT(EPOCH FROM (CURRENT_TIMESTAMP - MIN(expires_at))) * 1000 " +
+                     "FROM otp_codes WHERE status = 'ACTIVE' AND expires_at < CURRENT_TIMESTAMP";
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            return (long) rs.getDouble(1);
+        } finally {
+            EXPIRY_LAG_MILLIS_TIMER.recordSince(start);
         }
     }
     
     public void deleteByUserId(Long userId) throws SQLException {
         String sql = "DELETE FROM otp_codes WHERE user_id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setLong(1, userId);
             stmt.executeUpdate();
+        } finally {
+            DELETE_BY_USER_ID_TIMER.recordSince(start);
+            if (cache != null) {
+                cache.invalidateUser(userId);
+            }
         }
     }
     
@@ -82,7 +622,7 @@ public class OtpCodeDao {
         otpCode.setUserId(rs.getLong("user_id"));
         otpCode.setOperationId(rs.getString("operation_id"));
         otpCode.setCode(rs.getString("code"));
-        otpCode.setStatus(OtpCode.Status.valueOf(rs.getString("status")));
+        otpCode.setStatus(OtpCode.Status.valueOf(rs.getString("effective_status")));
         otpCode.setDeliveryMethod(OtpCode.DeliveryMethod.valueOf(rs.getString("delivery_method")));
         otpCode.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
         otpCode.setExpiresAt(rs.getTimestamp("expires_at").toLocalDateTime());
@@ -92,6 +632,15 @@ public class OtpCodeDao {
             otpCode.setUsedAt(usedAt.toLocalDateTime());
         }
         
+        otpCode.setDeliveryStatus(OtpCode.DeliveryStatus.valueOf(rs.getString("delivery_status")));
+        otpCode.setDeliveryAttempts(rs.getInt("delivery_attempts"));
+        otpCode.setDeliveryError(rs.getString("delivery_error"));
+        otpCode.setFailedAttempts(rs.getInt("failed_attempts"));
+        Timestamp deliveredAt = rs.getTimestamp("delivered_at");
+        if (deliveredAt != null) {
+            otpCode.setDeliveredAt(deliveredAt.toLocalDateTime());
+        }
+        
         return otpCode;
     }
 }
\ No newline at end of file
@@ -4,30 +4,47 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
 
+import javax.sql.DataSource;
+
+import com.otp.metrics.Timer;
 import com.otp.model.OtpConfig;
+import com.otp.service.OtpConfigCache;
 
 public class OtpConfigDao {
-    private final Connection connection;
+    // Время запросов по методам
+    private static final Timer GET_CONFIG_TIMER = DaoMetrics.queryTimer("OtpConfigDao", "getConfig");
+    private static final Timer UPDATE_CONFIG_TIMER = DaoMetrics.queryTimer("OtpConfigDao", "updateConfig");
+    private static final Timer GET_UPDATED_AT_TIMER = DaoMetrics.queryTimer("OtpConfigDao", "getUpdatedAt");
+    
+    private final DataSource dataSource;
     
-    public OtpConfigDao(Connection connection) {
-        this.connection = connection;
+    public OtpConfigDao(DataSource dataSource) {
+        this.dataSource = dataSource;
     }
     
     public OtpConfig getConfig() throws SQLException {
         String sql = "SELECT * FROM otp_config WHERE id = 1";
-        try (PreparedStatement stmt = connection.prepareStatement(sql);
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql);
              ResultSet rs = stmt.executeQuery()) {
             if (rs.next()) {
                 return mapConfig(rs);
             }
             throw new SQLException("OTP config not found");
+        } finally {
+            GET_CONFIG_TIMER.recordSince(start);
         }
     }
     
     public void updateConfig(int codeLength, int expiryMinutes) throws SQLException {
         String sql = "UPDATE public.otp_config SET code_length = ?, expiry_minutes = ?, updated_at = CURRENT_TIMESTAMP WHERE id = 1";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, codeLength);
             stmt.setInt(2, expiryMinutes);
             int affectedRows = stmt.executeUpdate();
@@ -35,6 +52,31 @@ public class OtpConfigDao {
             if (affectedRows == 0) {
                 throw new SQLException("Failed to update OTP config");
             }
+            
+            // Другие экземпляры сервиса обновят свой кэш конфигурации
+            try (Statement notify = connection.createStatement()) {
+                notify.execute("NOTIFY " + OtpConfigCache.NOTIFY_CHANNEL);
+            }
+        } finally {
+            UPDATE_CONFIG_TIMER.recordSince(start);
+        }
+    }
+    
+    /**
+     * Версия конфигурации (updated_at) — дешёвая проверка, изменилась ли она
+     */
+    public LocalDateTime getUpdatedAt() throws SQLException {
+        String sql = "SELECT updated_at FROM otp_config WHERE id = 1";
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            if (rs.next()) {
+                return rs.getTimestamp(1).toLocalDateTime();
+            }
+            throw new SQLException("OTP config not found");
+        } finally {
+            GET_UPDATED_AT_TIMER.recordSince(start);
         }
     }
     
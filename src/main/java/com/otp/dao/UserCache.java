@@ -0,0 +1,83 @@
+package com.otp.dao;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.otp.model.User;
+
+/**
+ * Небольшой LRU-кэш пользователей по id с ограниченным временем жизни записи.
+ * Нужен там, где действительно требуется состояние из БД (контакты для доставки,
+ * проверка пользователя в режиме аутентификации database).
+ */
+public class UserCache {
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Map<Long, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public UserCache(Properties config) {
+        this.maxSize = Integer.parseInt(config.getProperty("user.cache.max_size", "10000"));
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(config.getProperty("user.cache.ttl_ms", "60000")));
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > UserCache.this.maxSize;
+            }
+        };
+    }
+
+    public User get(Long id) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(id);
+            if (entry != null && System.nanoTime() - entry.loadedAtNanos > ttlNanos) {
+                entries.remove(id);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return copy(entry.user);
+    }
+
+    public void put(User user) {
+        Entry entry = new Entry(copy(user), System.nanoTime());
+        synchronized (this) {
+            entries.put(user.getId(), entry);
+        }
+    }
+
+    public synchronized void invalidate(Long id) {
+        entries.remove(id);
+    }
+
+    private static User copy(User source) {
+        User copy = new User();
+        copy.setId(source.getId());
+        copy.setUsername(source.getUsername());
+        copy.setPasswordHash(source.getPasswordHash());
+        copy.setRole(source.getRole());
+        copy.setEmail(source.getEmail());
+        copy.setPhone(source.getPhone());
+        copy.setTelegramChatId(source.getTelegramChatId());
+        copy.setCreatedAt(source.getCreatedAt());
+        return copy;
+    }
+
+    // Метрики кэша
+    public synchronized int getSize() { return entries.size(); }
+    public long getHitCount() { return hits.sum(); }
+    public long getMissCount() { return misses.sum(); }
+
+    private record Entry(User user, long loadedAtNanos) {
+    }
+}
@@ -9,18 +9,38 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
+import javax.sql.DataSource;
+
+import com.otp.metrics.Timer;
 import com.otp.model.User;
 
 public class UserDao {
-    private final Connection connection;
+    // Время запросов по методам
+    private static final Timer SAVE_TIMER = DaoMetrics.queryTimer("UserDao", "save");
+    private static final Timer FIND_BY_USERNAME_TIMER = DaoMetrics.queryTimer("UserDao", "findByUsername");
+    private static final Timer HAS_ADMIN_TIMER = DaoMetrics.queryTimer("UserDao", "hasAdmin");
+    private static final Timer FIND_ALL_USERS_TIMER = DaoMetrics.queryTimer("UserDao", "findAllUsers");
+    private static final Timer DELETE_TIMER = DaoMetrics.queryTimer("UserDao", "delete");
+    private static final Timer FIND_BY_ID_TIMER = DaoMetrics.queryTimer("UserDao", "findById");
+    private static final Timer UPDATE_PASSWORD_HASH_TIMER = DaoMetrics.queryTimer("UserDao", "updatePasswordHash");
+    
+    private final DataSource dataSource;
+    private final UserCache cache;
+    
+    public UserDao(DataSource dataSource) {
+        this(dataSource, null);
+    }
     
-    public UserDao(Connection connection) {
-        this.connection = connection;
+    public UserDao(DataSource dataSource, UserCache cache) {
+        this.dataSource = dataSource;
+        this.cache = cache;
     }
     
     public void save(User user) throws SQLException {
         String sql = "INSERT INTO users (username, password_hash, role, email, phone, telegram_chat_id) VALUES (?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setString(1, user.getUsername());
             stmt.setString(2, user.getPasswordHash());
             stmt.setString(3, user.getRole().name());
@@ -35,27 +55,37 @@ public class UserDao {
                     user.setId(keys.getLong(1));
                 }
             }
+        } finally {
+            SAVE_TIMER.recordSince(start);
         }
     }
     
     public Optional<User> findByUsername(String username) throws SQLException {
         String sql = "SELECT * FROM users WHERE username = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setString(1, username);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
                     return Optional.of(mapUser(rs));
                 }
             }
+        } finally {
+            FIND_BY_USERNAME_TIMER.recordSince(start);
         }
         return Optional.empty();
     }
     
     public boolean hasAdmin() throws SQLException {
         String sql = "SELECT COUNT(*) FROM users WHERE role = 'ADMIN'";
-        try (PreparedStatement stmt = connection.prepareStatement(sql);
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql);
              ResultSet rs = stmt.executeQuery()) {
             return rs.next() && rs.getInt(1) > 0;
+        } finally {
+            HAS_ADMIN_TIMER.recordSince(start);
         }
     }
 
@@ -63,20 +93,52 @@ public class UserDao {
     public List<User> findAllUsers() throws SQLException {
         String sql = "SELECT * FROM users WHERE role = 'USER'";
         List<User> users = new ArrayList<>();
-        try (PreparedStatement stmt = connection.prepareStatement(sql);
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql);
              ResultSet rs = stmt.executeQuery()) {
             while (rs.next()) {
                 users.add(mapUser(rs));
             }
+        } finally {
+            FIND_ALL_USERS_TIMER.recordSince(start);
         }
         return users;
     }
     
     public void delete(Long userId) throws SQLException {
         String sql = "DELETE FROM users WHERE id = ? AND role = 'USER'";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setLong(1, userId);
             stmt.executeUpdate();
+        } finally {
+            DELETE_TIMER.recordSince(start);
+            if (cache != null) {
+                cache.invalidate(userId);
+            }
+        }
+    }
+    
+    /**
+     * Замена хеша пароля (пересчёт при входе). Условие на старый хеш не даёт
+     * затереть пароль, сменённый параллельно
+     */
+    public boolean updatePasswordHash(Long userId, String oldHash, String newHash) throws SQLException {
+        String sql = "UPDATE users SET password_hash = ? WHERE id = ? AND password_hash = ?";
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, newHash);
+            stmt.setLong(2, userId);
+            stmt.setString(3, oldHash);
+            return stmt.executeUpdate() > 0;
+        } finally {
+            UPDATE_PASSWORD_HASH_TIMER.recordSince(start);
+            if (cache != null) {
+                cache.invalidate(userId);
+            }
         }
     }
     
@@ -95,14 +157,29 @@ public class UserDao {
 
 
     public Optional<User> findById(Long id) throws SQLException {
+        if (cache != null) {
+            User cached = cache.get(id);
+            if (cached != null) {
+                return Optional.of(cached);
+            }
+        }
+        
         String sql = "SELECT * FROM users WHERE id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setLong(1, id);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return Optional.of(mapUser(rs));
+                    User user = mapUser(rs);
+                    if (cache != null) {
+                        cache.put(user);
+                    }
+                    return Optional.of(user);
                 }
             }
+        } finally {
+            FIND_BY_ID_TIMER.recordSince(start);
         }
         return Optional.empty();
     }
@@ -0,0 +1,30 @@
+package com.otp.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Монотонный счётчик на LongAdder: запись из многих потоков без блокировок
+ */
+public final class Counter implements Metric {
+    private final LongAdder value = new LongAdder();
+
+    Counter() {
+    }
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long delta) {
+        value.add(delta);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+
+    @Override
+    public void writeTo(StringBuilder out, String name, String labels) {
+        MetricsRegistry.appendSample(out, name, labels, value.sum());
+    }
+}
@@ -0,0 +1,26 @@
+package com.otp.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Значение, которое читается из компонента в момент выгрузки
+ */
+final class Gauge implements Metric {
+    private final DoubleSupplier supplier;
+
+    Gauge(DoubleSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    @Override
+    public void writeTo(StringBuilder out, String name, String labels) {
+        double value;
+        try {
+            value = supplier.getAsDouble();
+        } catch (RuntimeException e) {
+            // Сломанный источник не должен ломать всю выгрузку
+            value = Double.NaN;
+        }
+        MetricsRegistry.appendSample(out, name, labels, value);
+    }
+}
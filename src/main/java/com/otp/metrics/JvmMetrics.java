@@ -0,0 +1,57 @@
+package com.otp.metrics;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Показатели JVM: память, сборщики мусора, потоки, классы, загрузка системы
+ */
+public final class JvmMetrics {
+    private JvmMetrics() {
+    }
+
+    public static void register() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        MetricsRegistry.gauge("jvm_memory_used_bytes", "Used JVM memory",
+            () -> memory.getHeapMemoryUsage().getUsed(), "area", "heap");
+        MetricsRegistry.gauge("jvm_memory_used_bytes", "Used JVM memory",
+            () -> memory.getNonHeapMemoryUsage().getUsed(), "area", "nonheap");
+        MetricsRegistry.gauge("jvm_memory_committed_bytes", "Committed JVM memory",
+            () -> memory.getHeapMemoryUsage().getCommitted(), "area", "heap");
+        MetricsRegistry.gauge("jvm_memory_committed_bytes", "Committed JVM memory",
+            () -> memory.getNonHeapMemoryUsage().getCommitted(), "area", "nonheap");
+        MetricsRegistry.gauge("jvm_memory_max_bytes", "Max JVM heap",
+            () -> memory.getHeapMemoryUsage().getMax(), "area", "heap");
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MetricsRegistry.gauge("jvm_memory_pool_used_bytes", "Used memory per JVM memory pool",
+                () -> pool.getUsage().getUsed(), "pool", pool.getName());
+        }
+
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            MetricsRegistry.functionCounter("jvm_gc_collections_total", "GC runs per collector",
+                gc::getCollectionCount, "gc", gc.getName());
+            MetricsRegistry.functionCounter("jvm_gc_collection_seconds_total", "Accumulated GC time per collector",
+                () -> gc.getCollectionTime() / 1000.0, "gc", gc.getName());
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MetricsRegistry.gauge("jvm_threads_live", "Live platform threads", threads::getThreadCount);
+        MetricsRegistry.gauge("jvm_threads_daemon", "Live daemon threads", threads::getDaemonThreadCount);
+        MetricsRegistry.gauge("jvm_threads_peak", "Peak live platform threads", threads::getPeakThreadCount);
+
+        ClassLoadingMXBean classes = ManagementFactory.getClassLoadingMXBean();
+        MetricsRegistry.gauge("jvm_classes_loaded", "Currently loaded classes", classes::getLoadedClassCount);
+
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        MetricsRegistry.gauge("system_load_average_1m", "System load average for the last minute", os::getSystemLoadAverage);
+        MetricsRegistry.gauge("system_cpu_count", "Available processors", os::getAvailableProcessors);
+        MetricsRegistry.gauge("process_uptime_seconds", "JVM uptime",
+            () -> ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0);
+    }
+}
@@ -0,0 +1,8 @@
+package com.otp.metrics;
+
+/**
+ * Метрика с конкретным набором меток; умеет записать себя в текстовом формате Prometheus
+ */
+interface Metric {
+    void writeTo(StringBuilder out, String name, String labels);
+}
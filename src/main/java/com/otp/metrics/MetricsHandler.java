@@ -0,0 +1,24 @@
+package com.otp.metrics;
+
+import java.io.IOException;
+
+import com.otp.api.HttpIo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * GET /metrics — выгрузка реестра для Prometheus
+ */
+public class MetricsHandler implements HttpHandler {
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            HttpIo.sendEmpty(exchange, 405);
+            return;
+        }
+        // Выгрузка кодируется в UTF-8 сразу в буфер ответа
+        HttpIo.sendText(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", MetricsRegistry.scrape());
+    }
+}
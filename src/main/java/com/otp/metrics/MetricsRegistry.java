@@ -0,0 +1,118 @@
+package com.otp.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Общий реестр метрик процесса. Метрики регистрируются один раз (обычно в static final поле
+ * или в конструкторе), горячий путь работает уже с готовым объектом и в реестр не ходит.
+ * Метки передаются парами: "route", "/api/auth/login", "status", "200".
+ */
+public final class MetricsRegistry {
+    private static final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private MetricsRegistry() {
+    }
+
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) register(name, help, "counter", labels, Counter::new);
+    }
+
+    public static Timer timer(String name, String help, String... labels) {
+        return (Timer) register(name, help, "histogram", labels, () -> new Timer(Timer.DEFAULT_BUCKETS));
+    }
+
+    public static void gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        register(name, help, "gauge", labels, () -> new Gauge(supplier));
+    }
+
+    /**
+     * Счётчик, значение которого уже ведёт сам компонент (например, getSentCount())
+     */
+    public static void functionCounter(String name, String help, DoubleSupplier supplier, String... labels) {
+        register(name, help, "counter", labels, () -> new Gauge(supplier));
+    }
+
+    /**
+     * Все метрики в текстовом формате Prometheus 0.0.4
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            family.children.forEach((labels, metric) -> metric.writeTo(out, family.name, labels));
+        }
+        return out.toString();
+    }
+
+    private static Metric register(String name, String help, String type, String[] labels,
+                                   Supplier<Metric> factory) {
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type);
+        }
+        return family.children.computeIfAbsent(formatLabels(labels), l -> factory.get());
+    }
+
+    private static String formatLabels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                switch (c) {
+                    case '\\' -> out.append("\\\\");
+                    case '"' -> out.append("\\\"");
+                    case '\n' -> out.append("\\n");
+                    default -> out.append(c);
+                }
+            }
+            out.append('"');
+        }
+        return out.toString();
+    }
+
+    static void appendSample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(formatValue(value)).append('\n');
+    }
+
+    static String formatValue(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final Map<String, Metric> children = new ConcurrentSkipListMap<>();
+
+        private Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.otp.metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма длительностей с фиксированными границами корзин. Каждая корзина и сумма —
+ * отдельный LongAdder (внутри он сам разбит на ячейки по потокам), так что запись не берёт
+ * блокировок и не упирается в одну CAS-переменную. Число наблюдений считается как сумма
+ * корзин, поэтому _count и +Inf в одной выгрузке всегда совпадают.
+ */
+public final class Timer implements Metric {
+    // Границы корзин в секундах, как у клиентских библиотек Prometheus, плюс мелкие для запросов к кэшу
+    static final double[] DEFAULT_BUCKETS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    private final long[] bucketNanos;
+    // Значения метки le, вычисленные заранее
+    private final String[] bucketLabels;
+    // Последняя ячейка — +Inf
+    private final LongAdder[] buckets;
+    private final LongAdder sumNanos = new LongAdder();
+
+    Timer(double[] bucketSeconds) {
+        this.bucketNanos = new long[bucketSeconds.length];
+        this.bucketLabels = new String[bucketSeconds.length];
+        for (int i = 0; i < bucketSeconds.length; i++) {
+            bucketNanos[i] = (long) (bucketSeconds[i] * TimeUnit.SECONDS.toNanos(1));
+            bucketLabels[i] = "le=\"" + BigDecimal.valueOf(bucketSeconds[i]).stripTrailingZeros().toPlainString() + "\"";
+        }
+        this.buckets = new LongAdder[bucketSeconds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[bucketIndex(nanos)].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Записать время, прошедшее с момента start (значение System.nanoTime())
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public double getSumSeconds() {
+        return sumNanos.sum() / 1e9;
+    }
+
+    private int bucketIndex(long nanos) {
+        int low = 0;
+        int high = bucketNanos.length;
+        // Первая корзина, чья граница не меньше значения
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (bucketNanos[mid] < nanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void writeTo(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < bucketLabels.length; i++) {
+            cumulative += buckets[i].sum();
+            MetricsRegistry.appendSample(out, name + "_bucket", prefix + bucketLabels[i], cumulative);
+        }
+        cumulative += buckets[bucketLabels.length].sum();
+        MetricsRegistry.appendSample(out, name + "_bucket", prefix + "le=\"+Inf\"", cumulative);
+        MetricsRegistry.appendSample(out, name + "_sum", labels, getSumSeconds());
+        MetricsRegistry.appendSample(out, name + "_count", labels, cumulative);
+    }
+}
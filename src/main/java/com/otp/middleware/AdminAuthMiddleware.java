@@ -1,8 +1,8 @@
 package com.otp.middleware;
 
 import java.io.IOException;
-import java.io.OutputStream;
 
+import com.otp.api.HttpIo;
 import com.otp.model.User;
 import com.otp.service.AuthService;
 
@@ -24,7 +24,7 @@ public class AdminAuthMiddleware implements HttpHandler {
             // Проверка заголовка Authorization
             String authHeader = exchange.getRequestHeaders().getFirst("Authorization");
             if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                sendResponse(exchange, 401, "Missing Authorization header");
+                HttpIo.sendText(exchange, 401, "Missing Authorization header");
                 return;
             }
 
@@ -34,7 +34,7 @@ public class AdminAuthMiddleware implements HttpHandler {
 
             // Проверка роли
             if (user.getRole() != User.Role.ADMIN) {
-                sendResponse(exchange, 403, "Admin access required");
+                HttpIo.sendText(exchange, 403, "Admin access required");
                 return;
             }
 
@@ -42,18 +42,10 @@ public class AdminAuthMiddleware implements HttpHandler {
             next.handle(exchange);
 
         } catch (SecurityException e) {
-            sendResponse(exchange, 401, "Invalid token: " + e.getMessage());
+            HttpIo.sendText(exchange, 401, "Invalid token: " + e.getMessage());
         } catch (Exception e) {
-            sendResponse(exchange, 500, "Internal server error");
+            HttpIo.sendText(exchange, 500, "Internal server error");
             e.printStackTrace();
         }
     }
-
-    private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
-        exchange.getResponseHeaders().set("Content-Type", "text/plain");
-        exchange.sendResponseHeaders(statusCode, response.getBytes().length);
-        try (OutputStream os = exchange.getResponseBody()) {
-            os.write(response.getBytes());
-        }
-    }
-}
\ No newline at end of file
+}
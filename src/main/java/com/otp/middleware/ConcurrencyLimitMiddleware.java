@@ -0,0 +1,60 @@
+package com.otp.middleware;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+
+import com.otp.api.HttpIo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ограничение числа одновременно обрабатываемых запросов: общее для сервера и отдельное для маршрута.
+ * Запрос сверх лимита сразу получает 503, а не ждёт в очереди.
+ */
+public class ConcurrencyLimitMiddleware implements HttpHandler {
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrencyLimitMiddleware.class);
+
+    private final HttpHandler next;
+    private final String route;
+    private final Semaphore serverInFlight;
+    private final Semaphore routeInFlight;
+
+    public ConcurrencyLimitMiddleware(HttpHandler next, String route, Semaphore serverInFlight, Semaphore routeInFlight) {
+        this.next = next;
+        this.route = route;
+        this.serverInFlight = serverInFlight;
+        this.routeInFlight = routeInFlight;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!serverInFlight.tryAcquire()) {
+            logger.warn("Server in-flight limit reached, rejecting request to {}", route);
+            sendResponse(exchange, 503, "Server is busy");
+            return;
+        }
+        try {
+            if (!routeInFlight.tryAcquire()) {
+                logger.warn("Concurrency limit reached for route {}", route);
+                sendResponse(exchange, 503, "Too many concurrent requests");
+                return;
+            }
+            try {
+                next.handle(exchange);
+            } finally {
+                routeInFlight.release();
+            }
+        } finally {
+            serverInFlight.release();
+        }
+    }
+
+    private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        HttpIo.sendText(exchange, statusCode, response);
+    }
+}
@@ -0,0 +1,49 @@
+package com.otp.middleware;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.otp.metrics.MetricsRegistry;
+import com.otp.metrics.Timer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Число запросов и гистограмма длительности по маршруту и коду ответа.
+ * Стоит снаружи остальных middleware, поэтому учитывает и отказы 503 по лимитам.
+ */
+public class MetricsMiddleware implements HttpHandler {
+    private final HttpHandler next;
+    private final String route;
+    // Таймер на каждый встретившийся код ответа; после первого запроса — только чтение карты
+    private final Map<Integer, Timer> timersByStatus = new ConcurrentHashMap<>();
+
+    public MetricsMiddleware(HttpHandler next, String route) {
+        this.next = next;
+        this.route = route;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            next.handle(exchange);
+        } finally {
+            timerFor(exchange.getResponseCode()).recordSince(start);
+        }
+    }
+
+    private Timer timerFor(int status) {
+        Timer timer = timersByStatus.get(status);
+        if (timer == null) {
+            // -1 — ответ не был отправлен (исключение в обработчике)
+            String statusLabel = status < 0 ? "none" : Integer.toString(status);
+            timer = timersByStatus.computeIfAbsent(status, s -> MetricsRegistry.timer(
+                "http_server_request_duration_seconds", "HTTP request latency by route and status",
+                "route", route, "status", statusLabel));
+        }
+        return timer;
+    }
+}
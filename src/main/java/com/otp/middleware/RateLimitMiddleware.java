@@ -0,0 +1,50 @@
+package com.otp.middleware;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.otp.api.HttpIo;
+import com.otp.util.RateLimiter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Лимит частоты запросов с одного IP-адреса клиента. Срабатывает до аутентификации,
+ * поэтому отсекает поток запросов, не тратя время на разбор токена и тела.
+ */
+public class RateLimitMiddleware implements HttpHandler {
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitMiddleware.class);
+
+    private final HttpHandler next;
+    private final RateLimiter limiter;
+
+    public RateLimitMiddleware(HttpHandler next, RateLimiter limiter) {
+        this.next = next;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String ip = exchange.getRemoteAddress().getAddress().getHostAddress();
+        long wait = limiter.tryAcquire(ip);
+        if (wait > 0) {
+            logger.debug("Rate limit {} exceeded for {}", limiter.getName(), ip);
+            sendTooManyRequests(exchange, wait);
+            return;
+        }
+        next.handle(exchange);
+    }
+
+    /**
+     * 429 с Retry-After в целых секундах (не меньше 1)
+     */
+    public static void sendTooManyRequests(HttpExchange exchange, long waitNanos) throws IOException {
+        long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        exchange.getResponseHeaders().set("Retry-After", Long.toString(retryAfter));
+        HttpIo.sendText(exchange, 429, "Too many requests");
+    }
+}
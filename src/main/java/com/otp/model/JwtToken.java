@@ -9,6 +9,7 @@ public class JwtToken {
     private String token;
     private LocalDateTime expiresAt;
     private boolean revoked;
+    private LocalDateTime revokedAt;
     private LocalDateTime createdAt;
 
     // Конструкторы
@@ -40,6 +41,9 @@ public class JwtToken {
     public boolean isRevoked() { return revoked; }
     public void setRevoked(boolean revoked) { this.revoked = revoked; }
     
+    public LocalDateTime getRevokedAt() { return revokedAt; }
+    public void setRevokedAt(LocalDateTime revokedAt) { this.revokedAt = revokedAt; }
+    
     public LocalDateTime getCreatedAt() { return createdAt; }
     public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
 }
\ No newline at end of file
@@ -13,6 +13,11 @@ public class OtpCode {
     private LocalDateTime createdAt;
     private LocalDateTime expiresAt;
     private LocalDateTime usedAt;
+    private DeliveryStatus deliveryStatus = DeliveryStatus.PENDING;
+    private int deliveryAttempts;
+    private String deliveryError;
+    private LocalDateTime deliveredAt;
+    private int failedAttempts;
     
     public enum Status {
         ACTIVE, EXPIRED, USED
@@ -22,6 +27,17 @@ public class OtpCode {
         SMS, EMAIL, TELEGRAM, FILE
     }
     
+    public enum DeliveryStatus {
+        PENDING, SENT, RETRYING, DEAD_LETTER
+    }
+    
+    /**
+     * Результат попытки погасить код
+     */
+    public enum ConsumeResult {
+        VALID, NOT_FOUND, NOT_ACTIVE, EXPIRED, INVALID_CODE, TOO_MANY_ATTEMPTS
+    }
+    
     // Конструкторы
     public OtpCode() {
     }
@@ -110,4 +126,44 @@ public class OtpCode {
     public void setUsedAt(LocalDateTime usedAt) {
         this.usedAt = usedAt;
     }
+
+    public DeliveryStatus getDeliveryStatus() {
+        return deliveryStatus;
+    }
+
+    public void setDeliveryStatus(DeliveryStatus deliveryStatus) {
+        this.deliveryStatus = deliveryStatus;
+    }
+
+    public int getDeliveryAttempts() {
+        return deliveryAttempts;
+    }
+
+    public void setDeliveryAttempts(int deliveryAttempts) {
+        this.deliveryAttempts = deliveryAttempts;
+    }
+
+    public String getDeliveryError() {
+        return deliveryError;
+    }
+
+    public void setDeliveryError(String deliveryError) {
+        this.deliveryError = deliveryError;
+    }
+
+    public LocalDateTime getDeliveredAt() {
+        return deliveredAt;
+    }
+
+    public void setDeliveredAt(LocalDateTime deliveredAt) {
+        this.deliveredAt = deliveredAt;
+    }
+
+    public int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    public void setFailedAttempts(int failedAttempts) {
+        this.failedAttempts = failedAttempts;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,244 @@
+package com.otp.notification;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.otp.dao.OtpCodeDao;
+import com.otp.model.OtpCode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Очередь доставки OTP-кодов. Генерация только ставит задание в очередь,
+ * а отдельные пулы воркеров на каждый канал отправляют код с повторами и
+ * переводят задание в DEAD_LETTER после исчерпания попыток.
+ * Результат доставки записывается в строку otp_codes.
+ */
+public class DeliveryPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(DeliveryPipeline.class);
+
+    private final NotificationService notificationService;
+    private final OtpCodeDao otpCodeDao;
+    private final Map<OtpCode.DeliveryMethod, ThreadPoolExecutor> workers = new EnumMap<>(OtpCode.DeliveryMethod.class);
+    // Ограничение числа отправок, ожидающих ответа канала
+    private final Map<OtpCode.DeliveryMethod, Semaphore> inFlight = new EnumMap<>(OtpCode.DeliveryMethod.class);
+    // Запись статусов и планирование повторов — не в потоках клиентов каналов
+    private final ThreadPoolExecutor statusExecutor;
+    private final ScheduledExecutorService retryScheduler;
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+
+    private final LongAdder sentCount = new LongAdder();
+    private final LongAdder retryCount = new LongAdder();
+    private final LongAdder deadLetterCount = new LongAdder();
+
+    public DeliveryPipeline(NotificationService notificationService, OtpCodeDao otpCodeDao, Properties config) {
+        this.notificationService = notificationService;
+        this.otpCodeDao = otpCodeDao;
+        this.maxAttempts = Integer.parseInt(config.getProperty("delivery.max_attempts", "5"));
+        this.initialBackoffMs = Long.parseLong(config.getProperty("delivery.backoff.initial_ms", "1000"));
+        this.maxBackoffMs = Long.parseLong(config.getProperty("delivery.backoff.max_ms", "60000"));
+
+        int queueSize = Integer.parseInt(config.getProperty("delivery.queue_size", "10000"));
+        for (OtpCode.DeliveryMethod method : OtpCode.DeliveryMethod.values()) {
+            String key = "delivery.workers." + method.name().toLowerCase();
+            int threads = Integer.parseInt(config.getProperty(key, "2"));
+            workers.put(method, newWorkerPool(method, threads, queueSize));
+            int maxInFlight = Integer.parseInt(config.getProperty("delivery.inflight." + method.name().toLowerCase(), "64"));
+            inFlight.put(method, new Semaphore(maxInFlight));
+        }
+
+        int statusThreads = Integer.parseInt(config.getProperty("delivery.status_threads", "2"));
+        AtomicInteger statusCounter = new AtomicInteger();
+        // При переполнении статус пишет поток, завершивший отправку, — результат не теряется
+        this.statusExecutor = new ThreadPoolExecutor(statusThreads, statusThreads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            r -> new Thread(r, "delivery-status-" + statusCounter.getAndIncrement()),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "delivery-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static ThreadPoolExecutor newWorkerPool(OtpCode.DeliveryMethod method, int threads, int queueSize) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            r -> new Thread(r, "delivery-" + method.name().toLowerCase() + "-" + counter.getAndIncrement()),
+            new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Поставить сохранённый код в очередь доставки. Не блокирует вызывающий поток.
+     * false — очередь канала переполнена, код отправлен в DEAD_LETTER.
+     */
+    public boolean enqueue(OtpCode otpCode) {
+        return submit(new DeliveryJob(otpCode.getId(), otpCode.getUserId(), otpCode.getCode(),
+            otpCode.getDeliveryMethod(), otpCode.getExpiresAt(), otpCode.getDeliveryAttempts() + 1));
+    }
+
+    /**
+     * Повторная постановка в очередь недоставленных кодов после перезапуска
+     */
+    public void recoverPending() {
+        try {
+            List<OtpCode> pending = otpCodeDao.findUndelivered();
+            pending.forEach(this::enqueue);
+            if (!pending.isEmpty()) {
+                logger.info("Re-queued {} undelivered OTP codes", pending.size());
+            }
+        } catch (SQLException e) {
+            logger.error("Failed to recover undelivered OTP codes", e);
+        }
+    }
+
+    private boolean submit(DeliveryJob job) {
+        try {
+            workers.get(job.method()).execute(() -> process(job));
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.error("Delivery queue for {} is full, OTP {} goes to dead letter", job.method(), job.otpId());
+            markDeadLetter(job, "Delivery queue is full");
+            return false;
+        }
+    }
+
+    private void process(DeliveryJob job) {
+        if (job.expiresAt() != null && LocalDateTime.now().isAfter(job.expiresAt())) {
+            markDeadLetter(job, "Code expired before delivery");
+            return;
+        }
+
+        // Воркер ждёт только свободного слота канала, а не ответа шлюза
+        Semaphore permits = inFlight.get(job.method());
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            markDeadLetter(job, "Delivery pipeline is shutting down");
+            return;
+        }
+
+        notificationService.sendOtpAsync(job.userId(), job.code(), job.method())
+            .whenComplete((ignored, error) -> permits.release())
+            .whenCompleteAsync((ignored, error) -> {
+                if (error == null) {
+                    sentCount.increment();
+                    updateStatus(job, OtpCode.DeliveryStatus.SENT, null);
+                } else {
+                    handleFailure(job, error);
+                }
+            }, statusExecutor);
+    }
+
+    private void handleFailure(DeliveryJob job, Throwable e) {
+        String error = rootMessage(e);
+        if (job.attempt() >= maxAttempts) {
+            logger.error("Giving up on OTP {} via {} after {} attempts: {}", job.otpId(), job.method(), job.attempt(), error);
+            markDeadLetter(job, error);
+            return;
+        }
+
+        long delay = backoffMillis(job.attempt());
+        logger.warn("Delivery of OTP {} via {} failed (attempt {}), retrying in {} ms: {}",
+            job.otpId(), job.method(), job.attempt(), delay, error);
+        retryCount.increment();
+        if (!updateStatus(job, OtpCode.DeliveryStatus.RETRYING, error)) {
+            logger.info("OTP {} was re-issued, dropping retries of the previous code", job.otpId());
+            return;
+        }
+        try {
+            retryScheduler.schedule(() -> submit(job.nextAttempt()), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException rejected) {
+            markDeadLetter(job, "Delivery pipeline is shutting down");
+        }
+    }
+
+    /**
+     * Экспоненциальная задержка с джиттером
+     */
+    private long backoffMillis(int attempt) {
+        long delay = Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempt - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private void markDeadLetter(DeliveryJob job, String error) {
+        deadLetterCount.increment();
+        updateStatus(job, OtpCode.DeliveryStatus.DEAD_LETTER, error);
+    }
+
+    /**
+     * false — код в строке уже заменён перевыпуском, задание устарело
+     */
+    private boolean updateStatus(DeliveryJob job, OtpCode.DeliveryStatus status, String error) {
+        if (job.otpId() == null) {
+            return true;
+        }
+        try {
+            return otpCodeDao.updateDeliveryStatus(job.otpId(), job.code(), status, job.attempt(), error);
+        } catch (SQLException e) {
+            logger.error("Failed to record delivery status {} for OTP {}", status, job.otpId(), e);
+            return true;
+        }
+    }
+
+    private static String rootMessage(Throwable e) {
+        Throwable root = e;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        return root.getClass().getSimpleName() + ": " + root.getMessage();
+    }
+
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        workers.values().forEach(ThreadPoolExecutor::shutdown);
+        statusExecutor.shutdown();
+        for (ThreadPoolExecutor executor : workers.values()) {
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        try {
+            statusExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Метрики очереди
+    public int getQueueDepth(OtpCode.DeliveryMethod method) { return workers.get(method).getQueue().size(); }
+    public int getStatusQueueDepth() { return statusExecutor.getQueue().size(); }
+    public long getSentCount() { return sentCount.sum(); }
+    public long getRetryCount() { return retryCount.sum(); }
+    public long getDeadLetterCount() { return deadLetterCount.sum(); }
+
+    private record DeliveryJob(Long otpId, Long userId, String code, OtpCode.DeliveryMethod method,
+                               LocalDateTime expiresAt, int attempt) {
+        private DeliveryJob nextAttempt() {
+            return new DeliveryJob(otpId, userId, code, method, expiresAt, attempt + 1);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.otp.notification;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Запись строк в файл одним потоком-писателем. Записи копятся в кольцевом буфере,
+ * писатель забирает их пачкой и пишет одним вызовом FileChannel (group commit).
+ * fsync выполняется по политике: никогда, не чаще интервала или после каждой пачки.
+ * Файл ротируется по размеру или по времени.
+ */
+public class FileOtpAppender implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(FileOtpAppender.class);
+    private static final DateTimeFormatter ROTATION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    public enum FsyncPolicy {
+        NONE, INTERVAL, BATCH
+    }
+
+    private final Path path;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final long rotateBytes;
+    private final long rotateIntervalNanos;
+    private final int maxBatch;
+
+    // ArrayBlockingQueue — кольцевой массив фиксированного размера
+    private final BlockingQueue<Record> ringBuffer;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private long fileSize;
+    private long openedAtNanos;
+    private long lastFsyncNanos;
+
+    private final LongAdder recordCount = new LongAdder();
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder fsyncCount = new LongAdder();
+
+    public FileOtpAppender(Properties config) {
+        this.path = Path.of(config.getProperty("file.storage.path"));
+        this.fsyncPolicy = FsyncPolicy.valueOf(config.getProperty("file.storage.fsync", "interval").toUpperCase());
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(
+            Long.parseLong(config.getProperty("file.storage.fsync_interval_ms", "1000")));
+        this.rotateBytes = Long.parseLong(config.getProperty("file.storage.rotate_bytes", "0"));
+        this.rotateIntervalNanos = TimeUnit.MILLISECONDS.toNanos(
+            Long.parseLong(config.getProperty("file.storage.rotate_interval_ms", "0")));
+        this.maxBatch = Integer.parseInt(config.getProperty("file.storage.max_batch", "1024"));
+        this.ringBuffer = new ArrayBlockingQueue<>(Integer.parseInt(config.getProperty("file.storage.buffer_records", "65536")));
+
+        this.writer = new Thread(this::writeLoop, "file-otp-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Добавить строку. Future завершается, когда строка записана (и сброшена на диск при политике BATCH).
+     * Если буфер заполнен, вызывающий поток ждёт освобождения места.
+     */
+    public CompletableFuture<Void> append(byte[] line) {
+        Record record = new Record(line);
+        if (closed) {
+            record.future.completeExceptionally(new IllegalStateException("File appender is closed"));
+            return record.future;
+        }
+        try {
+            ringBuffer.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            record.future.completeExceptionally(e);
+        }
+        return record.future;
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>(maxBatch);
+        while (!closed || !ringBuffer.isEmpty()) {
+            try {
+                Record first = ringBuffer.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    maybeFsyncOnIdle();
+                    continue;
+                }
+                batch.add(first);
+                ringBuffer.drainTo(batch, maxBatch - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                if (!closed) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+        closeChannel();
+    }
+
+    private void writeBatch(List<Record> batch) {
+        try {
+            ensureOpen();
+            for (Record record : batch) {
+                if (buffer.remaining() < record.line.length) {
+                    flushBuffer();
+                    if (buffer.capacity() < record.line.length) {
+                        buffer = ByteBuffer.allocateDirect(record.line.length);
+                    }
+                }
+                buffer.put(record.line);
+            }
+            flushBuffer();
+
+            long now = System.nanoTime();
+            if (fsyncPolicy == FsyncPolicy.BATCH
+                || (fsyncPolicy == FsyncPolicy.INTERVAL && now - lastFsyncNanos >= fsyncIntervalNanos)) {
+                fsync(now);
+            }
+
+            recordCount.add(batch.size());
+            batchCount.increment();
+            batch.forEach(record -> record.future.complete(null));
+
+            rotateIfNeeded(now);
+        } catch (IOException e) {
+            logger.error("Failed to write {} OTP records to {}", batch.size(), path, e);
+            buffer.clear();
+            closeChannel();
+            batch.forEach(record -> record.future.completeExceptionally(
+                new RuntimeException("Failed to save OTP to file", e)));
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            fileSize += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void maybeFsyncOnIdle() {
+        if (channel == null || fsyncPolicy != FsyncPolicy.INTERVAL) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - lastFsyncNanos >= fsyncIntervalNanos) {
+            try {
+                fsync(now);
+            } catch (IOException e) {
+                logger.warn("fsync of {} failed", path, e);
+            }
+        }
+    }
+
+    private void fsync(long now) throws IOException {
+        channel.force(false);
+        lastFsyncNanos = now;
+        fsyncCount.increment();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            fileSize = channel.size();
+            openedAtNanos = System.nanoTime();
+            lastFsyncNanos = openedAtNanos;
+        }
+    }
+
+    private void rotateIfNeeded(long now) throws IOException {
+        boolean bySize = rotateBytes > 0 && fileSize >= rotateBytes;
+        boolean byTime = rotateIntervalNanos > 0 && now - openedAtNanos >= rotateIntervalNanos;
+        if (!bySize && !byTime) {
+            return;
+        }
+        if (fsyncPolicy != FsyncPolicy.NONE) {
+            fsync(now);
+        }
+        channel.close();
+        channel = null;
+        Path rotated = path.resolveSibling(path.getFileName() + "." + LocalDateTime.now().format(ROTATION_SUFFIX));
+        Files.move(path, rotated, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Rotated OTP file to {}", rotated);
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            if (fsyncPolicy != FsyncPolicy.NONE) {
+                channel.force(false);
+            }
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Error closing {}", path, e);
+        }
+        channel = null;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Метрики писателя
+    public long getRecordCount() { return recordCount.sum(); }
+    public long getBatchCount() { return batchCount.sum(); }
+    public long getFsyncCount() { return fsyncCount.sum(); }
+    public int getBufferedCount() { return ringBuffer.size(); }
+
+    private static final class Record {
+        private final byte[] line;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Record(byte[] line) {
+            this.line = line;
+        }
+    }
+}
@@ -1,36 +1,31 @@
 package com.otp.notification;
 
-import java.io.IOException;
-import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import javax.mail.Authenticator;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.PasswordAuthentication;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 
 import com.otp.dao.UserDao;
+import com.otp.metrics.Counter;
+import com.otp.metrics.MetricsRegistry;
+import com.otp.metrics.Timer;
 import com.otp.model.OtpCode;
 import com.otp.model.User;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.smpp.TCPIPConnection;
 import org.smpp.pdu.Address;
-import org.smpp.pdu.BindRequest;
-import org.smpp.pdu.BindResponse;
-import org.smpp.pdu.BindTransmitter;
 import org.smpp.pdu.SubmitSM;
-import org.smpp.pdu.SubmitSMResp;
 
 public class NotificationService {
     private static final Logger logger = LoggerFactory.getLogger(NotificationService.class);
@@ -41,44 +36,95 @@ public class NotificationService {
     private final TelegramService telegramService;
     private final FileService fileService;
     
+    // Время отправки (включая поиск контактов) и число ошибок по каналам
+    private final Map<OtpCode.DeliveryMethod, Timer> sendTimers = new EnumMap<>(OtpCode.DeliveryMethod.class);
+    private final Map<OtpCode.DeliveryMethod, Counter> failureCounters = new EnumMap<>(OtpCode.DeliveryMethod.class);
+    
     public NotificationService(UserDao userDao, Properties config) {
         this.userDao = userDao;
         this.emailService = new EmailService(config);
         this.smsService = new SmsService(config);
         this.telegramService = new TelegramService(config);
         this.fileService = new FileService(config);
+        for (OtpCode.DeliveryMethod method : OtpCode.DeliveryMethod.values()) {
+            String channel = method.name().toLowerCase();
+            sendTimers.put(method, MetricsRegistry.timer("otp_channel_send_duration_seconds",
+                "OTP send latency by delivery channel", "channel", channel));
+            failureCounters.put(method, MetricsRegistry.counter("otp_channel_send_failures_total",
+                "Failed OTP sends by delivery channel", "channel", channel));
+        }
     }
     
-    public void sendOtp(Long userId, String code, OtpCode.DeliveryMethod method) {
+    /**
+     * Отправка кода без блокировки вызывающего потока до ответа шлюза или записи в файл
+     */
+    public CompletableFuture<Void> sendOtpAsync(Long userId, String code, OtpCode.DeliveryMethod method) {
+        long start = System.nanoTime();
+        CompletableFuture<?> result;
         try {
-            User user = userDao.findById(userId)
+            // Для записи в файл контакты пользователя не нужны — не ходим в БД
+            User user = method == OtpCode.DeliveryMethod.FILE ? null : userDao.findById(userId)
                 .orElseThrow(() -> new IllegalArgumentException("User not found"));
             
             switch (method) {
                 case SMS:
-                    smsService.sendSms(user.getPhone(), "Your OTP code: " + code);
+                    result = smsService.sendSmsAsync(user.getPhone(), "Your OTP code: " + code);
                     break;
                 case EMAIL:
-                    emailService.sendEmail(user.getEmail(), "OTP Code", "Your OTP code: " + code);
+                    result = emailService.sendEmailAsync(user.getEmail(), "OTP Code", "Your OTP code: " + code);
                     break;
                 case TELEGRAM:
-                    telegramService.sendMessage(user.getTelegramChatId(), "Your OTP code: " + code);
+                    result = telegramService.sendMessageAsync(user.getTelegramChatId(), "Your OTP code: " + code);
                     break;
                 case FILE:
-                    fileService.saveToFile(userId, code);
+                    result = fileService.saveToFileAsync(userId, code);
                     break;
+                default:
+                    throw new IllegalArgumentException("Unsupported delivery method: " + method);
             }
-            
-            logger.info("OTP sent via {} to user {}", method, userId);
         } catch (Exception e) {
-            logger.error("Failed to send OTP via {} to user {}", method, userId, e);
-            throw new RuntimeException("Failed to send OTP", e);
+            result = CompletableFuture.failedFuture(e);
         }
+        
+        return result.handle((ignored, error) -> {
+            sendTimers.get(method).recordSince(start);
+            if (error != null) {
+                failureCounters.get(method).increment();
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                logger.error("Failed to send OTP via {} to user {}", method, userId, cause);
+                throw new CompletionException("Failed to send OTP", cause);
+            }
+            logger.info("OTP sent via {} to user {}", method, userId);
+            return null;
+        });
+    }
+    
+    public void close() {
+        smsService.close();
+        emailService.close();
+        fileService.close();
+    }
+    
+    public EmailService getEmailService() {
+        return emailService;
+    }
+    
+    public SmsService getSmsService() {
+        return smsService;
+    }
+    
+    public TelegramService getTelegramService() {
+        return telegramService;
+    }
+    
+    public FileService getFileService() {
+        return fileService;
     }
     
     public static class EmailService {
         private final  javax.mail.Session session;
         private final String fromEmail;
+        private final SmtpTransportPool transportPool;
         
         public EmailService(Properties config) {
             Properties props = new Properties();
@@ -95,9 +141,14 @@ public class NotificationService {
                     return new PasswordAuthentication(fromEmail, password);
                 }
             });
+            this.transportPool = new SmtpTransportPool(session, config);
         }
         
-        public void sendEmail(String toEmail, String subject, String text) {
+        public CompletableFuture<Void> sendEmailAsync(String toEmail, String subject, String text) {
+            if (toEmail == null) {
+                return CompletableFuture.failedFuture(new IllegalArgumentException("Email not set for user"));
+            }
+            
             try {
                 Message message = new MimeMessage(session);
                 message.setFrom(new InternetAddress(fromEmail));
@@ -105,121 +156,99 @@ public class NotificationService {
                 message.setSubject(subject);
                 message.setText(text);
                 
-                Transport.send(message);
+                return transportPool.send(message);
             } catch (MessagingException e) {
-                throw new RuntimeException("Failed to send email", e);
+                return CompletableFuture.failedFuture(new RuntimeException("Failed to send email", e));
             }
         }
+        
+        public SmtpTransportPool getTransportPool() {
+            return transportPool;
+        }
+        
+        public void close() {
+            transportPool.close();
+        }
     }
     
-public static class SmsService {
-    private final String host;
-    private final int port;
-    private final String systemId;
-    private final String password;
-    private final String systemType;
-    private final String sourceAddr;
-
-    public SmsService(Properties config) {
-        this.host = config.getProperty("smpp.host", "localhost");
-        this.port = Integer.parseInt(config.getProperty("smpp.port", "2775"));
-        this.systemId = config.getProperty("smpp.system_id", "smppclient1");
-        this.password = config.getProperty("smpp.password", "password");
-        this.systemType = config.getProperty("smpp.system_type", "OTP");
-        this.sourceAddr = config.getProperty("smpp.source_addr", "OTPService");
-    }
-
-    public void sendSms(String destination, String code) {
-        org.smpp.Session session = null;
-        try {
-            // 1. Создание соединения
-            TCPIPConnection connection = new TCPIPConnection(host, port);
-            connection.setReceiveTimeout(20_000);
-            
-            // 2. Создание сессии
-            session = new org.smpp.Session(connection);
-            
-            // 3. Настройка Bind запроса
-            BindRequest bindRequest = new BindTransmitter();
-            bindRequest.setSystemId(systemId);
-            bindRequest.setPassword(password);
-            bindRequest.setSystemType(systemType);
-            bindRequest.setInterfaceVersion((byte) 0x34); // SMPP v3.4
-            
-            // 4. Выполнение привязки
-            BindResponse bindResponse = session.bind(bindRequest);
-            
-  
-            // 5. Подготовка SMS
-            SubmitSM submitSM = new SubmitSM();
-            submitSM.setSourceAddr(new Address( (byte) 0, (byte) 1, sourceAddr));
-            submitSM.setDestAddr(new Address((byte) 0, (byte) 1, destination));  
-            submitSM.setShortMessage("Your code: " + code);       
-            submitSM.setDataCoding((byte) 0);                     
-            
-            // 6. Отправка SMS
-            SubmitSMResp submitResp = session.submit(submitSM);
-            
-            if (submitResp.getCommandStatus() != 0) {
-                throw new RuntimeException("SubmitSM failed. Status: " + submitResp.getCommandStatus());
+    public static class SmsService {
+        private final SmppSessionPool sessionPool;
+        private final String sourceAddr;
+        
+        public SmsService(Properties config) {
+            this.sessionPool = new SmppSessionPool(config);
+            this.sourceAddr = config.getProperty("smpp.source_addr", "OTPService");
+        }
+        
+        public CompletableFuture<String> sendSmsAsync(String destination, String message) {
+            if (destination == null) {
+                return CompletableFuture.failedFuture(new IllegalArgumentException("Phone number not set for user"));
             }
             
-            System.out.println("SMS sent successfully. Message ID: " + submitResp.getMessageId());
-            
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to send SMS", e);
-        } finally {
-            if (session != null) {
-                try {
-                    session.unbind();
-                    session.close();
-                } catch (Exception e) {
-                    System.err.println("Error while closing session: " + e.getMessage());
-                }
+            try {
+                SubmitSM submitSM = new SubmitSM();
+                submitSM.setSourceAddr(new Address((byte) 0, (byte) 1, sourceAddr));
+                submitSM.setDestAddr(new Address((byte) 0, (byte) 1, destination));
+                submitSM.setShortMessage(message);
+                submitSM.setDataCoding((byte) 0);
+                
+                return sessionPool.submit(submitSM)
+                    .whenComplete((messageId, error) -> {
+                        if (error == null) {
+                            logger.debug("SMS sent successfully. Message ID: {}", messageId);
+                        }
+                    });
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(new RuntimeException("Failed to send SMS", e));
             }
         }
+        
+        public SmppSessionPool getSessionPool() {
+            return sessionPool;
+        }
+        
+        public void close() {
+            sessionPool.close();
+        }
     }
-}
     
     public static class TelegramService {
-        private final String botToken;
-        private final String apiUrl = "https://api.telegram.org/bot";
+        private final TelegramSender sender;
         
         public TelegramService(Properties config) {
-            this.botToken = config.getProperty("telegram.bot.token");
+            this.sender = new TelegramSender(config);
         }
         
-        public void sendMessage(Long chatId, String message) {
+        public CompletableFuture<Void> sendMessageAsync(Long chatId, String message) {
             if (chatId == null) {
-                throw new IllegalArgumentException("Telegram chat ID not set for user");
-            }
-            
-            try {
-                String url = String.format("%s%s/sendMessage?chat_id=%d&text=%s",
-                    apiUrl, botToken, chatId, URLEncoder.encode(message, StandardCharsets.UTF_8));
-                
-                // Простая реализация HTTP-запроса (можно заменить на HttpClient)
-                new java.net.URL(url).openStream().close();
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to send Telegram message", e);
+                return CompletableFuture.failedFuture(new IllegalArgumentException("Telegram chat ID not set for user"));
             }
+            return sender.sendMessage(chatId, message);
+        }
+        
+        public TelegramSender getSender() {
+            return sender;
         }
     }
     
     public static class FileService {
-        private final Path storagePath;
+        private final FileOtpAppender appender;
         
         public FileService(Properties config) {
-            this.storagePath = Paths.get(config.getProperty("file.storage.path"));
+            this.appender = new FileOtpAppender(config);
         }
         
-        public void saveToFile(Long userId, String code) {
-            try {
-                String line = String.format("%s,%s,%s%n", userId, code, java.time.LocalDateTime.now());
-                Files.write(storagePath, line.getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to save OTP to file", e);
-            }
+        public CompletableFuture<Void> saveToFileAsync(Long userId, String code) {
+            String line = String.format("%s,%s,%s%n", userId, code, java.time.LocalDateTime.now());
+            return appender.append(line.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        public FileOtpAppender getAppender() {
+            return appender;
+        }
+        
+        public void close() {
+            appender.close();
         }
     }
 }
\ No newline at end of file
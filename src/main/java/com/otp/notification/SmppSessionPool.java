@@ -0,0 +1,406 @@
+package com.otp.notification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smpp.Data;
+import org.smpp.ServerPDUEvent;
+import org.smpp.ServerPDUEventListener;
+import org.smpp.TCPIPConnection;
+import org.smpp.pdu.BindRequest;
+import org.smpp.pdu.BindResponse;
+import org.smpp.pdu.BindTransmitter;
+import org.smpp.pdu.EnquireLink;
+import org.smpp.pdu.PDU;
+import org.smpp.pdu.Request;
+import org.smpp.pdu.SubmitSM;
+import org.smpp.pdu.SubmitSMResp;
+
+/**
+ * Пул долгоживущих transmitter-сессий SMPP. Каждая сессия держит окно из нескольких
+ * SubmitSM в полёте (ответы сопоставляются по sequence number), ограничивает
+ * скорость отправки, поддерживает соединение через enquire_link и
+ * переподключается после обрыва.
+ */
+public class SmppSessionPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SmppSessionPool.class);
+
+    private final String host;
+    private final int port;
+    private final String systemId;
+    private final String password;
+    private final String systemType;
+    private final int windowSize;
+    private final long minSubmitIntervalNanos;
+    private final long responseTimeoutMs;
+    private final long enquireLinkIntervalMs;
+    private final long rebindDelayMs;
+
+    private final List<PooledSession> sessions = new ArrayList<>();
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean closed;
+
+    private final LongAdder submitCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder bindCount = new LongAdder();
+
+    public SmppSessionPool(Properties config) {
+        this.host = config.getProperty("smpp.host", "localhost");
+        this.port = Integer.parseInt(config.getProperty("smpp.port", "2775"));
+        this.systemId = config.getProperty("smpp.system_id", "smppclient1");
+        this.password = config.getProperty("smpp.password", "password");
+        this.systemType = config.getProperty("smpp.system_type", "OTP");
+        this.windowSize = Integer.parseInt(config.getProperty("smpp.pool.window_size", "10"));
+        int maxTps = Integer.parseInt(config.getProperty("smpp.pool.max_tps", "50"));
+        this.minSubmitIntervalNanos = maxTps > 0 ? TimeUnit.SECONDS.toNanos(1) / maxTps : 0;
+        this.responseTimeoutMs = Long.parseLong(config.getProperty("smpp.pool.response_timeout_ms", "10000"));
+        this.enquireLinkIntervalMs = Long.parseLong(config.getProperty("smpp.pool.enquire_link_interval_ms", "30000"));
+        this.rebindDelayMs = Long.parseLong(config.getProperty("smpp.pool.rebind_delay_ms", "5000"));
+
+        int size = Integer.parseInt(config.getProperty("smpp.pool.size", "2"));
+        for (int i = 0; i < size; i++) {
+            sessions.add(new PooledSession(i));
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "smpp-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Асинхронная отправка SubmitSM. Future завершается message_id из SubmitSMResp.
+     * Вызывающий поток может подождать свободного места в окне или слота ограничителя скорости.
+     */
+    public CompletableFuture<String> submit(SubmitSM submitSM) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("SMPP pool is closed"));
+        }
+        startHousekeeping();
+
+        // Сначала пробуем связанные сессии по кругу, затем любую (она выполнит bind)
+        int start = Math.floorMod(nextSession.getAndIncrement(), sessions.size());
+        PooledSession target = sessions.get(start);
+        for (int i = 0; i < sessions.size(); i++) {
+            PooledSession candidate = sessions.get((start + i) % sessions.size());
+            if (candidate.isBound()) {
+                target = candidate;
+                break;
+            }
+        }
+        return target.submit(submitSM);
+    }
+
+    private void startHousekeeping() {
+        if (started.compareAndSet(false, true)) {
+            scheduler.scheduleWithFixedDelay(this::expireTimedOut, 1000, 1000, TimeUnit.MILLISECONDS);
+            if (enquireLinkIntervalMs > 0) {
+                scheduler.scheduleWithFixedDelay(this::enquireLinks,
+                    enquireLinkIntervalMs, enquireLinkIntervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void expireTimedOut() {
+        long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(responseTimeoutMs);
+        sessions.forEach(session -> session.expireOlderThan(deadline));
+    }
+
+    private void enquireLinks() {
+        sessions.forEach(PooledSession::keepAlive);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        sessions.forEach(PooledSession::unbindQuietly);
+    }
+
+    // Метрики пула
+    public int getSize() { return sessions.size(); }
+    public long getSubmitCount() { return submitCount.sum(); }
+    public long getFailureCount() { return failureCount.sum(); }
+    public long getBindCount() { return bindCount.sum(); }
+
+    public int getBoundCount() {
+        return (int) sessions.stream().filter(PooledSession::isBound).count();
+    }
+
+    public int getInFlightCount() {
+        return sessions.stream().mapToInt(session -> session.inFlight.size()).sum();
+    }
+
+    /**
+     * Одна связанная сессия с окном неподтверждённых запросов
+     */
+    private final class PooledSession implements ServerPDUEventListener {
+        private final int index;
+        private final Semaphore window = new Semaphore(windowSize);
+        private final Map<Integer, PendingSubmit> inFlight = new ConcurrentHashMap<>();
+        private final Object bindLock = new Object();
+        private final Object throttleLock = new Object();
+        private volatile org.smpp.Session session;
+        private volatile long lastReceivedNanos;
+        private long nextSubmitNanos;
+        private boolean rebindScheduled;
+
+        private PooledSession(int index) {
+            this.index = index;
+        }
+
+        private boolean isBound() {
+            org.smpp.Session current = session;
+            return current != null && current.isBound();
+        }
+
+        private CompletableFuture<String> submit(SubmitSM submitSM) {
+            boolean windowAcquired = false;
+            try {
+                org.smpp.Session current = ensureBound();
+                if (!window.tryAcquire(responseTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    throw new TimeoutException("SMPP window is full on session " + index);
+                }
+                windowAcquired = true;
+                throttle();
+
+                // Номер назначаем сами, чтобы зарегистрировать ожидание до того, как придёт ответ
+                submitSM.assignSequenceNumber(true);
+                PendingSubmit pending = new PendingSubmit();
+                inFlight.put(submitSM.getSequenceNumber(), pending);
+                try {
+                    current.submit(submitSM);
+                } catch (Exception e) {
+                    inFlight.remove(submitSM.getSequenceNumber());
+                    window.release();
+                    markBroken(current, e);
+                    throw e;
+                }
+                submitCount.increment();
+                return pending.future;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (windowAcquired) {
+                    window.release();
+                }
+                failureCount.increment();
+                return CompletableFuture.failedFuture(e);
+            } catch (Exception e) {
+                failureCount.increment();
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        /**
+         * Ограничение скорости: не чаще одного SubmitSM в minSubmitIntervalNanos на сессию
+         */
+        private void throttle() throws InterruptedException {
+            if (minSubmitIntervalNanos == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            long slot;
+            synchronized (throttleLock) {
+                slot = Math.max(now, nextSubmitNanos);
+                nextSubmitNanos = slot + minSubmitIntervalNanos;
+            }
+            if (slot > now) {
+                TimeUnit.NANOSECONDS.sleep(slot - now);
+            }
+        }
+
+        private org.smpp.Session ensureBound() throws Exception {
+            org.smpp.Session current = session;
+            if (current != null && current.isBound()) {
+                return current;
+            }
+            synchronized (bindLock) {
+                if (session != null && session.isBound()) {
+                    return session;
+                }
+                return bind();
+            }
+        }
+
+        private org.smpp.Session bind() throws Exception {
+            TCPIPConnection connection = new TCPIPConnection(host, port);
+            connection.setReceiveTimeout(responseTimeoutMs);
+            org.smpp.Session newSession = new org.smpp.Session(connection);
+
+            BindRequest bindRequest = new BindTransmitter();
+            bindRequest.setSystemId(systemId);
+            bindRequest.setPassword(password);
+            bindRequest.setSystemType(systemType);
+            bindRequest.setInterfaceVersion((byte) 0x34); // SMPP v3.4
+
+            // Слушатель переводит сессию в асинхронный режим: ответы приходят в handleEvent
+            BindResponse response = newSession.bind(bindRequest, this);
+            if (response == null || response.getCommandStatus() != Data.ESME_ROK) {
+                closeQuietly(newSession);
+                throw new IllegalStateException("SMPP bind failed. Status: "
+                    + (response == null ? "no response" : response.getCommandStatus()));
+            }
+
+            session = newSession;
+            lastReceivedNanos = System.nanoTime();
+            bindCount.increment();
+            logger.info("SMPP session {} bound to {}:{}", index, host, port);
+            return newSession;
+        }
+
+        @Override
+        public void handleEvent(ServerPDUEvent event) {
+            PDU pdu = event.getPDU();
+            lastReceivedNanos = System.nanoTime();
+
+            if (pdu.isResponse()) {
+                PendingSubmit pending = inFlight.remove(pdu.getSequenceNumber());
+                if (pending == null) {
+                    return; // ответ на enquire_link или на истёкший запрос
+                }
+                window.release();
+                if (pdu.getCommandStatus() != Data.ESME_ROK) {
+                    failureCount.increment();
+                    pending.future.completeExceptionally(
+                        new IllegalStateException("SubmitSM failed. Status: " + pdu.getCommandStatus()));
+                } else if (pdu instanceof SubmitSMResp submitResp) {
+                    pending.future.complete(submitResp.getMessageId());
+                } else {
+                    failureCount.increment();
+                    pending.future.completeExceptionally(
+                        new IllegalStateException("Unexpected response to SubmitSM: " + pdu.getCommandId()));
+                }
+                return;
+            }
+
+            if (pdu.isRequest()) {
+                org.smpp.Session current = session;
+                try {
+                    if (current != null && ((Request) pdu).canResponse()) {
+                        current.respond(((Request) pdu).getResponse());
+                    }
+                } catch (Exception e) {
+                    logger.warn("Failed to respond to SMSC request on session {}", index, e);
+                }
+                if (pdu.getCommandId() == Data.UNBIND) {
+                    logger.warn("SMSC unbound session {}", index);
+                    markBroken(current, new IllegalStateException("Unbound by SMSC"));
+                }
+            }
+        }
+
+        private void keepAlive() {
+            org.smpp.Session current = session;
+            if (current == null || !current.isBound()) {
+                return;
+            }
+            long silentFor = System.nanoTime() - lastReceivedNanos;
+            if (silentFor > TimeUnit.MILLISECONDS.toNanos(enquireLinkIntervalMs * 2 + responseTimeoutMs)) {
+                markBroken(current, new TimeoutException("No enquire_link response"));
+                return;
+            }
+            try {
+                current.enquireLink(new EnquireLink());
+            } catch (Exception e) {
+                markBroken(current, e);
+            }
+        }
+
+        private void expireOlderThan(long deadlineNanos) {
+            inFlight.entrySet().removeIf(entry -> {
+                if (entry.getValue().sentAtNanos - deadlineNanos < 0) {
+                    window.release();
+                    failureCount.increment();
+                    entry.getValue().future.completeExceptionally(
+                        new TimeoutException("No SubmitSMResp within " + responseTimeoutMs + " ms"));
+                    return true;
+                }
+                return false;
+            });
+        }
+
+        /**
+         * Сессия сломана: отменяем ожидающие запросы и планируем повторный bind
+         */
+        private void markBroken(org.smpp.Session broken, Exception cause) {
+            synchronized (bindLock) {
+                if (broken == null || session != broken) {
+                    return;
+                }
+                session = null;
+            }
+            logger.warn("SMPP session {} lost: {}", index, cause.getMessage());
+            closeQuietly(broken);
+            inFlight.entrySet().removeIf(entry -> {
+                window.release();
+                entry.getValue().future.completeExceptionally(
+                    new IllegalStateException("SMPP session lost", cause));
+                return true;
+            });
+            scheduleRebind();
+        }
+
+        private void scheduleRebind() {
+            synchronized (bindLock) {
+                if (closed || rebindScheduled) {
+                    return;
+                }
+                rebindScheduled = true;
+            }
+            scheduler.schedule(() -> {
+                synchronized (bindLock) {
+                    rebindScheduled = false;
+                }
+                try {
+                    ensureBound();
+                } catch (Exception e) {
+                    logger.warn("SMPP rebind of session {} failed: {}", index, e.getMessage());
+                    scheduleRebind();
+                }
+            }, rebindDelayMs, TimeUnit.MILLISECONDS);
+        }
+
+        private void unbindQuietly() {
+            org.smpp.Session current = session;
+            session = null;
+            if (current != null) {
+                try {
+                    current.unbind();
+                } catch (Exception e) {
+                    logger.debug("Error while unbinding SMPP session {}", index, e);
+                }
+                closeQuietly(current);
+            }
+        }
+
+        private void closeQuietly(org.smpp.Session target) {
+            try {
+                target.close();
+            } catch (Exception e) {
+                logger.debug("Error while closing SMPP session {}", index, e);
+            }
+        }
+    }
+
+    private static final class PendingSubmit {
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        private final long sentAtNanos = System.nanoTime();
+    }
+}
@@ -0,0 +1,255 @@
+package com.otp.notification;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPTransport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Пул SMTP-соединений. Каждый воркер держит своё подключённое Transport,
+ * забирает из очереди пачку писем и отправляет их одну за другой по одному
+ * соединению. Соединение пересоздаётся после ошибки, после лимита писем
+ * и после долгого простоя.
+ */
+public class SmtpTransportPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SmtpTransportPool.class);
+
+    private final Session session;
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final int maxMessagesPerConnection;
+    private final int batchSize;
+    private final long idleCheckMs;
+
+    private final BlockingQueue<PendingMessage> queue;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean closed;
+
+    // Метрики
+    private final LongAdder sentCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder sendNanosTotal = new LongAdder();
+    private final AtomicLong maxSendNanos = new AtomicLong();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder reusedSends = new LongAdder();
+
+    public SmtpTransportPool(Session session, Properties config) {
+        this.session = session;
+        this.host = config.getProperty("email.smtp.host");
+        this.port = Integer.parseInt(config.getProperty("email.smtp.port", "587"));
+        this.username = config.getProperty("email.smtp.username");
+        this.password = config.getProperty("email.smtp.password");
+        this.maxMessagesPerConnection = Integer.parseInt(config.getProperty("email.smtp.pool.max_messages_per_connection", "100"));
+        this.batchSize = Integer.parseInt(config.getProperty("email.smtp.pool.batch_size", "20"));
+        this.idleCheckMs = Long.parseLong(config.getProperty("email.smtp.pool.idle_check_ms", "30000"));
+        this.queue = new ArrayBlockingQueue<>(Integer.parseInt(config.getProperty("email.smtp.pool.queue_size", "10000")));
+
+        int size = Integer.parseInt(config.getProperty("email.smtp.pool.size", "2"));
+        for (int i = 0; i < size; i++) {
+            Thread worker = new Thread(new Worker(), "smtp-sender-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Поставить письмо в очередь отправки. Future завершается после ответа SMTP-сервера.
+     */
+    public CompletableFuture<Void> send(Message message) {
+        PendingMessage pending = new PendingMessage(message);
+        if (closed) {
+            pending.future.completeExceptionally(new IllegalStateException("SMTP pool is closed"));
+        } else if (!queue.offer(pending)) {
+            pending.future.completeExceptionally(new IllegalStateException("SMTP send queue is full"));
+        }
+        return pending.future;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        workers.forEach(Thread::interrupt);
+        PendingMessage pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future.completeExceptionally(new IllegalStateException("SMTP pool is closed"));
+        }
+    }
+
+    // Метрики пула
+    public long getSentCount() { return sentCount.sum(); }
+    public long getFailureCount() { return failureCount.sum(); }
+    public long getConnectionsOpened() { return connectionsOpened.sum(); }
+    public long getReusedSendCount() { return reusedSends.sum(); }
+    public int getQueueDepth() { return queue.size(); }
+    public double getMaxSendMillis() { return maxSendNanos.get() / 1_000_000.0; }
+
+    public double getAverageSendMillis() {
+        long sent = sentCount.sum();
+        return sent == 0 ? 0 : sendNanosTotal.sum() / 1_000_000.0 / sent;
+    }
+
+    /**
+     * Воркер с собственным соединением
+     */
+    private final class Worker implements Runnable {
+        private TrackedTransport transport;
+        private int messagesOnConnection;
+        private long lastUsedAt;
+
+        @Override
+        public void run() {
+            List<PendingMessage> batch = new ArrayList<>(batchSize);
+            while (!closed) {
+                try {
+                    PendingMessage first = queue.poll(idleCheckMs, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        // Долгий простой: сервер всё равно закроет соединение, закрываем сами
+                        disconnect();
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    for (PendingMessage pending : batch) {
+                        sendWithReconnect(pending);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } finally {
+                    batch.clear();
+                }
+            }
+            disconnect();
+        }
+
+        private void sendWithReconnect(PendingMessage pending) {
+            long start = System.nanoTime();
+            try {
+                try {
+                    sendOnce(pending.message);
+                } catch (MessagingException e) {
+                    if (!isConnectionFailure(e)) {
+                        throw e;
+                    }
+                    // Соединение закрыто сервером до передачи письма — одна попытка на новом
+                    logger.debug("SMTP connection lost, reconnecting: {}", e.getMessage());
+                    disconnect();
+                    sendOnce(pending.message);
+                }
+                long elapsed = System.nanoTime() - start;
+                sentCount.increment();
+                sendNanosTotal.add(elapsed);
+                maxSendNanos.accumulateAndGet(elapsed, Math::max);
+                pending.future.complete(null);
+            } catch (Exception e) {
+                failureCount.increment();
+                disconnect();
+                pending.future.completeExceptionally(new RuntimeException("Failed to send email", e));
+            }
+        }
+
+        private void sendOnce(Message message) throws MessagingException {
+            if (transport == null || messagesOnConnection >= maxMessagesPerConnection) {
+                reconnect();
+            } else {
+                reusedSends.increment();
+            }
+            transport.dataAccepted = false;
+            transport.sendMessage(message, message.getAllRecipients());
+            messagesOnConnection++;
+            lastUsedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * Повтор допустим, только если письмо точно не передано: отказ получателя
+         * или ошибка после принятой команды DATA повтором не исправляются, а могут дать дубль
+         */
+        private boolean isConnectionFailure(MessagingException e) {
+            if (transport == null) {
+                // Не удалось подключиться — письмо не отправлялось
+                return !(e instanceof SendFailedException);
+            }
+            if (transport.dataAccepted) {
+                return false;
+            }
+            if (e instanceof SMTPSendFailedException failed && failed.getReturnCode() < 0) {
+                // Сервер закрыл соединение, не ответив на команду конверта
+                return true;
+            }
+            if (e instanceof SendFailedException) {
+                return false;
+            }
+            return e.getCause() instanceof IOException || !transport.isConnected();
+        }
+
+        private void reconnect() throws MessagingException {
+            disconnect();
+            TrackedTransport newTransport = new TrackedTransport(session);
+            newTransport.connect(host, port, username, password);
+            connectionsOpened.increment();
+            transport = newTransport;
+            messagesOnConnection = 0;
+            lastUsedAt = System.currentTimeMillis();
+        }
+
+        private void disconnect() {
+            if (transport == null) {
+                return;
+            }
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                logger.debug("Error closing SMTP transport idle for {} ms", System.currentTimeMillis() - lastUsedAt, e);
+            }
+            transport = null;
+        }
+    }
+
+    /**
+     * SMTP-транспорт, запоминающий, что сервер принял DATA для текущего письма
+     */
+    private static final class TrackedTransport extends SMTPTransport {
+        private boolean dataAccepted;
+
+        private TrackedTransport(Session session) {
+            super(session, null);
+        }
+
+        @Override
+        protected OutputStream data() throws MessagingException {
+            OutputStream out = super.data();
+            dataAccepted = true;
+            return out;
+        }
+    }
+
+    private static final class PendingMessage {
+        private final Message message;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingMessage(Message message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.otp.notification;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.otp.util.TokenBucket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Отправка сообщений через Telegram Bot API на общем HttpClient (HTTP/2, keep-alive).
+ * Соблюдает глобальный лимит бота и лимит на чат с помощью маркерных корзин,
+ * при 429 повторяет запрос не раньше retry_after, снова расходуя токены. Если до
+ * отправки пришлось бы ждать дольше telegram.rate.max_wait_ms, запрос сразу отклоняется.
+ */
+public class TelegramSender {
+    private static final Logger logger = LoggerFactory.getLogger(TelegramSender.class);
+
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final URI sendMessageUri;
+    private final Duration requestTimeout;
+    private final int maxRetries;
+    private final long maxWaitNanos;
+    private final TokenBucket globalBucket;
+    private final double perChatRate;
+    private final double perChatBurst;
+    private final Map<Long, TokenBucket> chatBuckets = new ConcurrentHashMap<>();
+
+    private final LongAdder sentCount = new LongAdder();
+    private final LongAdder rateLimitedCount = new LongAdder();
+    private final LongAdder throttledCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+
+    public TelegramSender(Properties config) {
+        String baseUrl = config.getProperty("telegram.api.base_url", "https://api.telegram.org");
+        String botToken = config.getProperty("telegram.bot.token");
+        this.sendMessageUri = URI.create(baseUrl + "/bot" + botToken + "/sendMessage");
+        this.requestTimeout = Duration.ofMillis(Long.parseLong(config.getProperty("telegram.http.request_timeout_ms", "10000")));
+        this.maxRetries = Integer.parseInt(config.getProperty("telegram.max_retries", "3"));
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(config.getProperty("telegram.rate.max_wait_ms", "10000")));
+        this.globalBucket = new TokenBucket(
+            Double.parseDouble(config.getProperty("telegram.rate.global_burst", "30")),
+            Double.parseDouble(config.getProperty("telegram.rate.global_per_second", "30")));
+        this.perChatRate = Double.parseDouble(config.getProperty("telegram.rate.chat_per_second", "1"));
+        this.perChatBurst = Double.parseDouble(config.getProperty("telegram.rate.chat_burst", "3"));
+
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(Long.parseLong(config.getProperty("telegram.http.connect_timeout_ms", "5000"))))
+            .build();
+    }
+
+    public CompletableFuture<Void> sendMessage(long chatId, String text) {
+        String body;
+        try {
+            body = objectMapper.writeValueAsString(Map.of("chat_id", chatId, "text", text));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        evictIdleBuckets();
+        return scheduleSend(chatId, body, 0, 0);
+    }
+
+    /**
+     * Запрос уходит, когда в глобальной корзине и в корзине чата есть токены, но не раньше minDelayNanos
+     */
+    private CompletableFuture<Void> scheduleSend(long chatId, String body, int attempt, long minDelayNanos) {
+        TokenBucket chatBucket = chatBuckets.computeIfAbsent(chatId, id -> new TokenBucket(perChatBurst, perChatRate));
+        long globalDelay = globalBucket.reserve(maxWaitNanos);
+        if (globalDelay < 0) {
+            throttledCount.increment();
+            return CompletableFuture.failedFuture(new IllegalStateException("Telegram global rate limit backlog is full"));
+        }
+        long chatDelay = chatBucket.reserve(maxWaitNanos);
+        if (chatDelay < 0) {
+            globalBucket.cancelReservation();
+            throttledCount.increment();
+            return CompletableFuture.failedFuture(new IllegalStateException("Telegram rate limit backlog for chat is full"));
+        }
+        return sendAfter(chatId, body, attempt, Math.max(minDelayNanos, Math.max(globalDelay, chatDelay)));
+    }
+
+    private CompletableFuture<Void> sendAfter(long chatId, String body, int attempt, long delayNanos) {
+        Executor executor = delayNanos > 0
+            ? CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS)
+            : Runnable::run;
+
+        return CompletableFuture.supplyAsync(() -> HttpRequest.newBuilder(sendMessageUri)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(), executor)
+            .thenCompose(request -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()))
+            .thenCompose(response -> handleResponse(chatId, body, attempt, response));
+    }
+
+    private CompletableFuture<Void> handleResponse(long chatId, String body, int attempt, HttpResponse<String> response) {
+        if (response.statusCode() == 200) {
+            sentCount.increment();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        JsonNode json = parse(response.body());
+        String description = json.path("description").asText("HTTP " + response.statusCode());
+
+        if (response.statusCode() == 429 && attempt < maxRetries) {
+            rateLimitedCount.increment();
+            long retryAfterSeconds = json.path("parameters").path("retry_after").asLong(1);
+            logger.warn("Telegram rate limit for chat {}, retrying in {} s", chatId, retryAfterSeconds);
+            return scheduleSend(chatId, body, attempt + 1, TimeUnit.SECONDS.toNanos(retryAfterSeconds));
+        }
+
+        failureCount.increment();
+        return CompletableFuture.failedFuture(
+            new IllegalStateException("Telegram API error " + response.statusCode() + ": " + description));
+    }
+
+    private JsonNode parse(String body) {
+        try {
+            return objectMapper.readTree(body);
+        } catch (Exception e) {
+            return objectMapper.createObjectNode();
+        }
+    }
+
+    /**
+     * Полные корзины не несут состояния; чистим их, чтобы карта не росла бесконечно
+     */
+    private void evictIdleBuckets() {
+        if (chatBuckets.size() > 10_000) {
+            chatBuckets.values().removeIf(TokenBucket::isFull);
+        }
+    }
+
+    // Метрики канала
+    public long getSentCount() { return sentCount.sum(); }
+    public long getRateLimitedCount() { return rateLimitedCount.sum(); }
+    public long getThrottledCount() { return throttledCount.sum(); }
+    public long getFailureCount() { return failureCount.sum(); }
+}
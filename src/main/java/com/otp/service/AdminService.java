@@ -6,6 +6,7 @@ import java.util.List;
 import com.otp.dao.OtpCodeDao;
 import com.otp.dao.OtpConfigDao;
 import com.otp.dao.UserDao;
+import com.otp.model.OtpCode;
 import com.otp.model.OtpConfig;
 import com.otp.model.User;
 
@@ -13,11 +14,13 @@ public class AdminService {
     private final UserDao userDao;
     private final OtpConfigDao otpConfigDao;
     private final OtpCodeDao otpCodeDao;
+    private final OtpConfigCache otpConfigCache;
 
-    public AdminService(UserDao userDao, OtpConfigDao otpConfigDao, OtpCodeDao OtpCodeDao) {
+    public AdminService(UserDao userDao, OtpConfigDao otpConfigDao, OtpCodeDao OtpCodeDao, OtpConfigCache otpConfigCache) {
         this.userDao = userDao;
         this.otpConfigDao = otpConfigDao;
         this.otpCodeDao = OtpCodeDao;
+        this.otpConfigCache = otpConfigCache;
     }
 
     public OtpConfig getOtpConfig() throws SQLException {
@@ -31,6 +34,7 @@ public class AdminService {
     public void updateOtpConfig(int codeLength, int expiryMinutes) throws SQLException {
         try {
             otpConfigDao.updateConfig(codeLength, expiryMinutes);
+            otpConfigCache.refresh();
         } catch (SQLException e) {
             throw e;
         }
@@ -46,5 +50,12 @@ public class AdminService {
         userDao.delete(userId);
     }
 
+    /**
+     * Последние коды пользователя; статус учитывает срок действия
+     */
+    public List<OtpCode> getUserOtpCodes(Long userId, int limit) throws SQLException {
+        return otpCodeDao.findByUserId(userId, limit);
+    }
+
     
 }
\ No newline at end of file
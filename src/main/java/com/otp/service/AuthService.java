@@ -9,15 +9,23 @@ import com.otp.model.User.Role;
 
 import io.jsonwebtoken.JwtException;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 public class AuthService {
+    private static final Logger logger = LoggerFactory.getLogger(AuthService.class);
+
     private final UserDao userDao;
     private final JwtService jwtService;
     private final PasswordEncoder passwordEncoder;
+    // Хеш для проверки при неизвестном логине, чтобы время ответа не выдавало существование пользователя
+    private final String dummyHash;
 
     public AuthService(UserDao userDao, JwtService jwtService, PasswordEncoder passwordEncoder) {
         this.userDao = userDao;
         this.jwtService = jwtService;
         this.passwordEncoder = passwordEncoder;
+        this.dummyHash = passwordEncoder.encode("dummy-password");
     }
 
     public User authenticate(String token) throws SecurityException, SQLException {
@@ -28,6 +36,14 @@ public class AuthService {
         }
     }
 
+    public void logout(String token) throws SecurityException, SQLException {
+        try {
+            jwtService.revokeToken(token);
+        } catch (JwtException e) {
+            throw new SecurityException("Invalid token", e);
+        }
+    }
+
     public boolean adminExists() throws SQLException {
         return userDao.hasAdmin();
     }
@@ -49,6 +65,7 @@ public class AuthService {
     public String login(String username, String password) throws SQLException {
         Optional<User> userOpt = userDao.findByUsername(username);
         if (userOpt.isEmpty()) {
+            passwordEncoder.matches(password, dummyHash);
             throw new SecurityException("User not found");
         }
         
@@ -56,7 +73,25 @@ public class AuthService {
         if (!passwordEncoder.matches(password, user.getPasswordHash())) {
             throw new SecurityException("Invalid password");
         }
+
+        if (passwordEncoder.needsRehash(user.getPasswordHash())) {
+            rehash(user, password);
+        }
         
         return jwtService.generateToken(user);
     }
+
+    /**
+     * Пересчёт хеша текущим алгоритмом; ошибка не мешает входу — повторим при следующем
+     */
+    private void rehash(User user, String password) {
+        try {
+            String newHash = passwordEncoder.encode(password);
+            if (userDao.updatePasswordHash(user.getId(), user.getPasswordHash(), newHash)) {
+                logger.info("Password hash upgraded for user {}", user.getId());
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to upgrade password hash for user {}", user.getId(), e);
+        }
+    }
 }
\ No newline at end of file
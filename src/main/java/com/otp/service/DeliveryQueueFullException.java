@@ -0,0 +1,12 @@
+package com.otp.service;
+
+/**
+ * Очередь доставки канала переполнена: код выпущен, но не будет отправлен (DEAD_LETTER)
+ */
+public class DeliveryQueueFullException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DeliveryQueueFullException(String operationId) {
+        super("Delivery queue is full for operation " + operationId);
+    }
+}
@@ -0,0 +1,181 @@
+package com.otp.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.otp.model.OtpCode;
+
+/**
+ * Коды без хранения (в духе HOTP/TOTP, RFC 4226/6238). Секрет пользователя —
+ * HMAC(мастер-ключ, userId), код — динамическое усечение HMAC(секрет, operationId
+ * || номер шага времени). Проверка пересчитывает код для шагов в пределах срока
+ * действия; от повторного использования защищает набор погашенных операций,
+ * записи в котором живут столько же, сколько код. Неверные попытки считаются
+ * так же в памяти: после otp.validate.max_failed_attempts операция блокируется.
+ */
+public class HmacOtpEngine {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000};
+
+    private final SecretKeySpec masterKey;
+    private final long stepMillis;
+    // userId:operationId -> момент, после которого запись можно забыть
+    private final Map<String, Long> consumed = new ConcurrentHashMap<>();
+    // userId:operationId -> неверные попытки; 0 в настройке — без ограничения
+    private final Map<String, Failures> failures = new ConcurrentHashMap<>();
+    private final int maxFailedAttempts;
+    private final Clock clock;
+    private final ScheduledExecutorService cleaner;
+
+    public HmacOtpEngine(Properties config) {
+        this(config, Clock.systemUTC());
+    }
+
+    /**
+     * clock задаёт шаги времени (в тестах — управляемые часы)
+     */
+    public HmacOtpEngine(Properties config, Clock clock) {
+        String secret = config.getProperty("otp.hmac.secret");
+        if (secret == null || secret.length() < 32) {
+            throw new IllegalArgumentException("otp.hmac.secret must be at least 32 characters");
+        }
+        this.masterKey = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.stepMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(config.getProperty("otp.hmac.step_seconds", "30")));
+        this.maxFailedAttempts = Integer.parseInt(config.getProperty("otp.validate.max_failed_attempts", "5"));
+        this.clock = clock;
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hmac-otp-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.cleaner.scheduleWithFixedDelay(this::prune, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public String generate(long userId, String operationId, int digits) {
+        return code(userKey(userId), operationId, currentStep(), digits);
+    }
+
+    /**
+     * Проверка кода, выданного не раньше чем expiryMinutes назад. Коды из следующего
+     * такого же окна в прошлом распознаются как истёкшие.
+     */
+    public OtpCode.ConsumeResult validate(long userId, String operationId, String code, int digits, int expiryMinutes) {
+        String replayKey = userId + ":" + operationId;
+        if (consumed.containsKey(replayKey)) {
+            return OtpCode.ConsumeResult.NOT_ACTIVE;
+        }
+        Failures previous = failures.get(replayKey);
+        if (maxFailedAttempts > 0 && previous != null && previous.count() >= maxFailedAttempts) {
+            return OtpCode.ConsumeResult.TOO_MANY_ATTEMPTS;
+        }
+
+        long now = currentStep();
+        long window = Math.max(1, TimeUnit.MINUTES.toMillis(expiryMinutes) / stepMillis);
+        if (code == null || code.length() != digits) {
+            return recordFailure(replayKey, (now + window + 1) * stepMillis);
+        }
+        byte[] expected = code.getBytes(StandardCharsets.US_ASCII);
+        byte[] key = userKey(userId);
+        for (long step = now; step >= now - window; step--) {
+            if (matches(key, operationId, step, digits, expected)) {
+                long forgetAt = (step + window + 1) * stepMillis;
+                return consumed.putIfAbsent(replayKey, forgetAt) == null
+                    ? OtpCode.ConsumeResult.VALID
+                    : OtpCode.ConsumeResult.NOT_ACTIVE;
+            }
+        }
+        for (long step = now - window - 1; step >= now - 2 * window - 1; step--) {
+            if (matches(key, operationId, step, digits, expected)) {
+                return OtpCode.ConsumeResult.EXPIRED;
+            }
+        }
+        return recordFailure(replayKey, (now + window + 1) * stepMillis);
+    }
+
+    /**
+     * Учесть неверную попытку; запись живёт, пока код операции может быть действителен
+     */
+    private OtpCode.ConsumeResult recordFailure(String replayKey, long forgetAt) {
+        if (maxFailedAttempts <= 0) {
+            return OtpCode.ConsumeResult.INVALID_CODE;
+        }
+        Failures updated = failures.merge(replayKey, new Failures(1, forgetAt),
+            (old, fresh) -> new Failures(old.count() + 1, fresh.forgetAt()));
+        return updated.count() >= maxFailedAttempts
+            ? OtpCode.ConsumeResult.TOO_MANY_ATTEMPTS
+            : OtpCode.ConsumeResult.INVALID_CODE;
+    }
+
+    private boolean matches(byte[] key, String operationId, long step, int digits, byte[] expected) {
+        byte[] actual = code(key, operationId, step, digits).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(actual, expected);
+    }
+
+    private long currentStep() {
+        return clock.millis() / stepMillis;
+    }
+
+    private byte[] userKey(long userId) {
+        return hmac(masterKey, ByteBuffer.allocate(Long.BYTES).putLong(userId).array());
+    }
+
+    private static String code(byte[] userKey, String operationId, long step, int digits) {
+        byte[] operation = operationId.getBytes(StandardCharsets.UTF_8);
+        byte[] message = ByteBuffer.allocate(operation.length + Long.BYTES).put(operation).putLong(step).array();
+        byte[] hash = hmac(new SecretKeySpec(userKey, ALGORITHM), message);
+
+        // Динамическое усечение из RFC 4226
+        int offset = hash[hash.length - 1] & 0x0f;
+        int binary = ((hash[offset] & 0x7f) << 24)
+            | ((hash[offset + 1] & 0xff) << 16)
+            | ((hash[offset + 2] & 0xff) << 8)
+            | (hash[offset + 3] & 0xff);
+
+        char[] chars = new char[digits];
+        int value = binary % POWERS_OF_TEN[digits];
+        for (int i = digits - 1; i >= 0; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(chars);
+    }
+
+    private static byte[] hmac(SecretKeySpec key, byte[] message) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(message);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC computation failed", e);
+        }
+    }
+
+    private void prune() {
+        long now = clock.millis();
+        consumed.values().removeIf(forgetAt -> forgetAt < now);
+        failures.values().removeIf(entry -> entry.forgetAt() < now);
+    }
+
+    public void stop() {
+        cleaner.shutdownNow();
+    }
+
+    // Метрики
+    public int getConsumedCount() { return consumed.size(); }
+    public int getFailureEntryCount() { return failures.size(); }
+
+    private record Failures(int count, long forgetAt) {
+    }
+}
@@ -2,53 +2,120 @@ package com.otp.service;
 
 import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Date;
+import java.util.UUID;
+
+import javax.crypto.SecretKey;
 
 import com.otp.dao.UserDao;
+import com.otp.model.JwtToken;
 import com.otp.model.User;
 
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
 
 public class JwtService {
-    private final String secretKey;
+    /**
+     * claims — пользователь собирается из подписанных claims без обращения к БД; удаление
+     * пользователя и смена роли не видны до истечения токена;
+     * database — пользователь читается через UserDao (с кэшем), удалённый пользователь сразу теряет доступ
+     */
+    public enum AuthMode {
+        CLAIMS, DATABASE
+    }
+
     private final int expiration;
     private final UserDao userDao;
+    private final AuthMode authMode;
+    private final TokenRevocationService revocationService;
+    // Ключ и парсер неизменяемы и потокобезопасны, создаются один раз
+    private final SecretKey signingKey;
+    private final JwtParser parser;
 
     public JwtService(String secretKey, int expiration, UserDao userDao) {
-        this.secretKey = secretKey;
+        this(secretKey, expiration, userDao, AuthMode.DATABASE, null);
+    }
+
+    public JwtService(String secretKey, int expiration, UserDao userDao, AuthMode authMode,
+                      TokenRevocationService revocationService) {
         this.expiration = expiration;
         this.userDao = userDao;
+        this.authMode = authMode;
+        this.revocationService = revocationService;
+        this.signingKey = Keys.hmacShaKeyFor(secretKey.getBytes(StandardCharsets.UTF_8));
+        this.parser = Jwts.parserBuilder()
+            .setSigningKey(signingKey)
+            .build();
     }
 
     public String generateToken(User user) {
         return Jwts.builder()
+            .setId(UUID.randomUUID().toString())
             .setSubject(user.getUsername())
             .claim("userId", user.getId())
             .claim("role", user.getRole().name())
             .setIssuedAt(new Date())
-            .setExpiration(new Date(System.currentTimeMillis() + expiration * 1000))
-            .signWith(Keys.hmacShaKeyFor(secretKey.getBytes(StandardCharsets.UTF_8)), 
-                      SignatureAlgorithm.HS512)
+            .setExpiration(new Date(System.currentTimeMillis() + expiration * 1000L))
+            .signWith(signingKey, SignatureAlgorithm.HS512)
             .compact();
     }
 
     public User validateToken(String token) throws JwtException, SQLException {
         Claims claims = parseToken(token);
         Long userId = claims.get("userId", Long.class);
+        if (userId == null) {
+            throw new JwtException("Token has no userId claim");
+        }
+        // Токены без jti (выданные до появления отзыва) отозвать нельзя
+        if (revocationService != null && claims.getId() != null && revocationService.isRevoked(claims.getId())) {
+            throw new JwtException("Token has been revoked");
+        }
         
+        if (authMode == AuthMode.CLAIMS) {
+            return userFromClaims(userId, claims);
+        }
         return userDao.findById(userId)
             .orElseThrow(() -> new JwtException("User not found for token"));
     }
 
+    /**
+     * Отзыв действующего токена (logout)
+     */
+    public void revokeToken(String token) throws JwtException, SQLException {
+        if (revocationService == null) {
+            throw new IllegalStateException("Token revocation is not configured");
+        }
+        Claims claims = parseToken(token);
+        if (claims.getId() == null) {
+            throw new JwtException("Token has no jti and cannot be revoked");
+        }
+        LocalDateTime expiresAt = LocalDateTime.ofInstant(claims.getExpiration().toInstant(), ZoneId.systemDefault());
+        revocationService.revoke(new JwtToken(claims.getId(), claims.get("userId", Long.class), token, expiresAt));
+    }
+
+    private User userFromClaims(Long userId, Claims claims) {
+        String role = claims.get("role", String.class);
+        if (role == null) {
+            throw new JwtException("Token has no role claim");
+        }
+        User user = new User();
+        user.setId(userId);
+        user.setUsername(claims.getSubject());
+        try {
+            user.setRole(User.Role.valueOf(role));
+        } catch (IllegalArgumentException e) {
+            throw new JwtException("Unknown role in token: " + role);
+        }
+        return user;
+    }
+
     private Claims parseToken(String token) {
-        return Jwts.parserBuilder()
-            .setSigningKey(Keys.hmacShaKeyFor(secretKey.getBytes(StandardCharsets.UTF_8)))
-            .build()
-            .parseClaimsJws(token)
-            .getBody();
+        return parser.parseClaimsJws(token).getBody();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,12 @@
+package com.otp.service;
+
+/**
+ * Операция с таким operationId уже принадлежит другому пользователю
+ */
+public class OperationOwnershipException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public OperationOwnershipException(String operationId) {
+        super("Operation " + operationId + " belongs to another user");
+    }
+}
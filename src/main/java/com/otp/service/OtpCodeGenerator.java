@@ -0,0 +1,135 @@
+package com.otp.service;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Генератор OTP-кодов. Энтропия читается из SecureRandom пачками в буферы,
+ * разнесённые по полосам (stripe): у каждой полосы свой SecureRandom, так что
+ * потоки почти не конкурируют. ThreadLocal не используется — с виртуальными
+ * потоками буфер создавался бы на каждый запрос. Символ выбирается выборкой с
+ * отклонением, без смещения от деления по модулю.
+ */
+public class OtpCodeGenerator {
+    private static final int BUFFER_SIZE = 512;
+
+    public enum Alphabet {
+        NUMERIC("0123456789"),
+        ALPHANUMERIC("0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ"),
+        // Без I, L, O, U — их легко спутать
+        CROCKFORD_BASE32("0123456789ABCDEFGHJKMNPQRSTVWXYZ");
+
+        private final char[] symbols;
+        // Байты не меньше этой границы отбрасываются, чтобы все символы были равновероятны
+        private final int rejectionBound;
+
+        Alphabet(String symbols) {
+            this.symbols = symbols.toCharArray();
+            this.rejectionBound = 256 - (256 % this.symbols.length);
+        }
+    }
+
+    private final Alphabet alphabet;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    public OtpCodeGenerator(Alphabet alphabet) {
+        this.alphabet = alphabet;
+        int count = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.stripeMask = count - 1;
+    }
+
+    public Alphabet getAlphabet() {
+        return alphabet;
+    }
+
+    public String generate(int length) {
+        char[] code = new char[length];
+        generate(code);
+        return new String(code);
+    }
+
+    /**
+     * Заполнить массив символами кода
+     */
+    public void generate(char[] code) {
+        Stripe stripe = acquireStripe();
+        try {
+            char[] symbols = alphabet.symbols;
+            int bound = alphabet.rejectionBound;
+            int size = symbols.length;
+            int i = 0;
+            while (i < code.length) {
+                int b = stripe.nextByte();
+                if (b < bound) {
+                    code[i++] = symbols[b % size];
+                }
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Приведение введённого пользователем кода к каноническому виду алфавита
+     */
+    public String normalize(String code) {
+        if (code == null || alphabet == Alphabet.NUMERIC) {
+            return code;
+        }
+        String upper = code.trim().toUpperCase(Locale.ROOT);
+        if (alphabet == Alphabet.CROCKFORD_BASE32) {
+            upper = upper.replace('O', '0').replace('I', '1').replace('L', '1');
+        }
+        return upper;
+    }
+
+    /**
+     * Своя полоса по id потока; если она занята, пробуем соседние, затем ждём свою
+     */
+    private Stripe acquireStripe() {
+        int start = (int) Thread.currentThread().threadId() & stripeMask;
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe stripe = stripes[(start + i) & stripeMask];
+            if (stripe.lock.tryLock()) {
+                return stripe;
+            }
+        }
+        Stripe own = stripes[start];
+        own.lock.lock();
+        return own;
+    }
+
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final SecureRandom random = newSecureRandom();
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = BUFFER_SIZE;
+
+        private int nextByte() {
+            if (position == BUFFER_SIZE) {
+                random.nextBytes(buffer);
+                position = 0;
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        /**
+         * DRBG держит состояние в экземпляре; NativePRNG по умолчанию читает
+         * /dev/urandom через общий для всех экземпляров замок
+         */
+        private static SecureRandom newSecureRandom() {
+            try {
+                return SecureRandom.getInstance("DRBG");
+            } catch (NoSuchAlgorithmException e) {
+                return new SecureRandom();
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.otp.service;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.otp.dao.ConnectionPool;
+import com.otp.dao.OtpConfigDao;
+import com.otp.model.OtpConfig;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Кэш конфигурации OTP. Путь генерации читает неизменяемый снимок из памяти и
+ * не ходит в БД. Снимок обновляется после изменения через AdminService, а для
+ * нескольких экземпляров сервиса — по LISTEN/NOTIFY или опросом updated_at.
+ */
+public class OtpConfigCache {
+    private static final Logger logger = LoggerFactory.getLogger(OtpConfigCache.class);
+
+    public static final String NOTIFY_CHANNEL = "otp_config_changed";
+
+    /**
+     * Неизменяемый снимок конфигурации
+     */
+    public record Snapshot(int codeLength, int expiryMinutes, LocalDateTime updatedAt) {
+        public OtpConfig toOtpConfig() {
+            OtpConfig config = new OtpConfig();
+            config.setCodeLength(codeLength);
+            config.setExpiryMinutes(expiryMinutes);
+            config.setUpdatedAt(updatedAt);
+            return config;
+        }
+    }
+
+    private final OtpConfigDao otpConfigDao;
+    private final ConnectionPool connectionPool;
+    private final String refreshMode;
+    private final long refreshIntervalMs;
+    private final List<Consumer<Snapshot>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+    private volatile Snapshot current;
+    private volatile boolean stopped;
+
+    public OtpConfigCache(OtpConfigDao otpConfigDao, ConnectionPool connectionPool, Properties config) throws SQLException {
+        this.otpConfigDao = otpConfigDao;
+        this.connectionPool = connectionPool;
+        this.refreshMode = config.getProperty("otp.config.refresh_mode", "notify");
+        this.refreshIntervalMs = Long.parseLong(config.getProperty("otp.config.refresh_interval_ms", "5000"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "otp-config-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.current = load();
+    }
+
+    public Snapshot current() {
+        return current;
+    }
+
+    /**
+     * Подписка на смену конфигурации; слушатель сразу получает текущий снимок
+     */
+    public void addListener(Consumer<Snapshot> listener) {
+        listeners.add(listener);
+        listener.accept(current);
+    }
+
+    /**
+     * Перечитать конфигурацию из БД. Синхронизировано: иначе снимок, прочитанный раньше,
+     * мог бы опубликоваться позже нового и откатить конфигурацию
+     */
+    public synchronized Snapshot refresh() throws SQLException {
+        Snapshot fresh = load();
+        Snapshot previous = current;
+        current = fresh;
+        if (!fresh.equals(previous)) {
+            logger.info("OTP config updated: codeLength={}, expiryMinutes={}", fresh.codeLength(), fresh.expiryMinutes());
+            listeners.forEach(listener -> listener.accept(fresh));
+        }
+        return fresh;
+    }
+
+    private Snapshot load() throws SQLException {
+        OtpConfig config = otpConfigDao.getConfig();
+        return new Snapshot(config.getCodeLength(), config.getExpiryMinutes(), config.getUpdatedAt());
+    }
+
+    public void start() {
+        switch (refreshMode) {
+            case "notify":
+                scheduler.execute(this::listenLoop);
+                break;
+            case "poll":
+                scheduler.scheduleWithFixedDelay(this::pollVersion, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+                break;
+            case "none":
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown otp.config.refresh_mode: " + refreshMode);
+        }
+    }
+
+    private void pollVersion() {
+        try {
+            LocalDateTime version = otpConfigDao.getUpdatedAt();
+            if (!version.equals(current.updatedAt())) {
+                refresh();
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed to poll OTP config version", e);
+        }
+    }
+
+    /**
+     * LISTEN на отдельном соединении вне пула. После переподключения конфигурация
+     * перечитывается, чтобы не потерять уведомления, пришедшие во время обрыва.
+     */
+    private void listenLoop() {
+        while (!stopped) {
+            try (Connection connection = connectionPool.openDedicatedConnection()) {
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("LISTEN " + NOTIFY_CHANNEL);
+                }
+                refresh();
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (!stopped) {
+                    PGNotification[] notifications = pgConnection.getNotifications((int) refreshIntervalMs);
+                    if (notifications != null && notifications.length > 0) {
+                        refresh();
+                    }
+                }
+            } catch (SQLException e) {
+                if (stopped) {
+                    return;
+                }
+                logger.warn("OTP config listener failed, reconnecting in {} ms", refreshIntervalMs, e);
+                try {
+                    Thread.sleep(refreshIntervalMs);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,114 @@
+package com.otp.service;
+
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.otp.dao.OtpCodeDao;
+import com.otp.metrics.MetricsRegistry;
+import com.otp.metrics.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Фоновое истечение OTP-кодов небольшими порциями. Каждая порция — короткая
+ * транзакция на своём соединении, между порциями пауза, чтобы не мешать запросам.
+ * Интервал между проходами растёт, пока просроченных кодов нет, и сбрасывается
+ * к минимальному, если за проход очередь разобрать не удалось.
+ */
+public class OtpExpirySweeper {
+    private static final Logger logger = LoggerFactory.getLogger(OtpExpirySweeper.class);
+    private static final Timer RUN_TIMER = MetricsRegistry.timer("otp_sweeper_run_duration_seconds",
+        "Duration of one expiry sweeper run");
+
+    private final OtpCodeDao otpCodeDao;
+    private final int chunkSize;
+    private final long pauseMs;
+    private final int maxChunksPerRun;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final ScheduledExecutorService scheduler;
+    private long intervalMs;
+
+    private final LongAdder sweptCount = new LongAdder();
+    private final LongAdder runCount = new LongAdder();
+    private volatile long lastRunSwept;
+    private volatile long lagMillis;
+
+    public OtpExpirySweeper(OtpCodeDao otpCodeDao, Properties config) {
+        this.otpCodeDao = otpCodeDao;
+        this.chunkSize = Integer.parseInt(config.getProperty("otp.sweeper.chunk_size", "1000"));
+        this.pauseMs = Long.parseLong(config.getProperty("otp.sweeper.pause_ms", "50"));
+        this.maxChunksPerRun = Integer.parseInt(config.getProperty("otp.sweeper.max_chunks_per_run", "100"));
+        this.minIntervalMs = Long.parseLong(config.getProperty("otp.sweeper.interval.min_ms", "1000"));
+        this.maxIntervalMs = Long.parseLong(config.getProperty("otp.sweeper.interval.max_ms", "60000"));
+        this.intervalMs = minIntervalMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "otp-expiry-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        scheduler.execute(this::run);
+    }
+
+    private void run() {
+        runCount.increment();
+        long start = System.nanoTime();
+        long swept = 0;
+        boolean drained = false;
+        boolean failed = false;
+        try {
+            for (int chunk = 0; chunk < maxChunksPerRun; chunk++) {
+                int expired = otpCodeDao.expireBatch(chunkSize);
+                swept += expired;
+                sweptCount.add(expired);
+                if (expired < chunkSize) {
+                    drained = true;
+                    break;
+                }
+                Thread.sleep(pauseMs);
+            }
+            lagMillis = otpCodeDao.expiryLagMillis();
+        } catch (SQLException | RuntimeException e) {
+            // Любая ошибка не должна снять задачу с расписания: иначе истечение остановится навсегда
+            logger.error("Error expiring old OTP codes", e);
+            failed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        RUN_TIMER.recordSince(start);
+        lastRunSwept = swept;
+        if (swept > 0) {
+            logger.info("Expired {} old OTP codes, lag {} ms", swept, lagMillis);
+        }
+        // Разобрали всё или ошибка (например, БД недоступна) — проверяем реже;
+        // не успели — следующий проход через минимальный интервал
+        intervalMs = drained || failed ? Math.min(maxIntervalMs, intervalMs * 2) : minIntervalMs;
+        try {
+            scheduler.schedule(this::run, intervalMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // остановлен
+        }
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    // Метрики чистильщика
+    public long getSweptCount() { return sweptCount.sum(); }
+    public long getRunCount() { return runCount.sum(); }
+    public long getLastRunSwept() { return lastRunSwept; }
+    public long getLagMillis() { return lagMillis; }
+    public long getIntervalMs() { return intervalMs; }
+}
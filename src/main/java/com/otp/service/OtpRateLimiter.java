@@ -0,0 +1,124 @@
+package com.otp.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import com.otp.util.RateLimiter;
+
+/**
+ * Лимиты частоты выдачи и проверки кодов по пользователю и по операции.
+ * Выдача ограничивается, чтобы повторы клиента не заваливали шлюзы доставки,
+ * проверка — чтобы перебор кода упирался в лимит, а не только в стоимость HTTP-запроса.
+ * Лимит задаётся в ratelimit.{generate|validate}.{user|operation}.burst / per_second;
+ * per_second=0 отключает лимит.
+ */
+public class OtpRateLimiter {
+    private final RateLimiter generateByUser;
+    private final RateLimiter generateByOperation;
+    private final RateLimiter validateByUser;
+    private final RateLimiter validateByOperation;
+
+    public OtpRateLimiter(Properties config) {
+        this.generateByUser = create(config, "generate", "user");
+        this.generateByOperation = create(config, "generate", "operation");
+        this.validateByUser = create(config, "validate", "user");
+        this.validateByOperation = create(config, "validate", "operation");
+    }
+
+    /**
+     * Ограничитель по ключу для маршрута и вида ключа (в том числе "ip" для middleware); null — лимит отключён
+     */
+    public static RateLimiter create(Properties config, String route, String key) {
+        String prefix = "ratelimit." + route + "." + key;
+        double ratePerSecond = Double.parseDouble(config.getProperty(prefix + ".per_second", "0"));
+        if (ratePerSecond <= 0) {
+            return null;
+        }
+        double burst = Double.parseDouble(config.getProperty(prefix + ".burst", "1"));
+        int maxKeys = Integer.parseInt(config.getProperty("ratelimit.max_keys", "100000"));
+        return new RateLimiter(route + "_" + key, burst, ratePerSecond, maxKeys);
+    }
+
+    /**
+     * 0 — выдача разрешена, иначе через сколько наносекунд можно повторить.
+     * operationId == null — проверяется только лимит пользователя.
+     */
+    public long checkGenerate(Long userId, String operationId) {
+        return check(generateByUser, generateByOperation, userId, operationId);
+    }
+
+    /**
+     * Лимиты пакетной выдачи по элементам: каждый элемент проходит лимит своей операции
+     * и расходует токен пользователя, как отдельный запрос. Возвращает по элементу 0
+     * (разрешён) или через сколько наносекунд его можно повторить.
+     */
+    public long[] checkGenerateBatch(Long userId, List<String> operationIds) {
+        return checkBatch(generateByUser, generateByOperation, userId, operationIds);
+    }
+
+    public long checkValidate(Long userId, String operationId) {
+        return check(validateByUser, validateByOperation, userId, operationId);
+    }
+
+    /**
+     * Лимиты пакетной проверки по элементам, как у {@link #checkGenerateBatch}:
+     * пакет не даёт перебирать коды быстрее отдельных запросов.
+     */
+    public long[] checkValidateBatch(Long userId, List<String> operationIds) {
+        return checkBatch(validateByUser, validateByOperation, userId, operationIds);
+    }
+
+    private static long[] checkBatch(RateLimiter byUser, RateLimiter byOperation, Long userId, List<String> operationIds) {
+        long[] waits = new long[operationIds.size()];
+        int passed = 0;
+        for (int i = 0; i < waits.length; i++) {
+            String operationId = operationIds.get(i);
+            if (byOperation != null && operationId != null) {
+                waits[i] = byOperation.tryAcquire(userId + ":" + operationId);
+            }
+            if (waits[i] == 0) {
+                passed++;
+            }
+        }
+        if (byUser == null) {
+            return waits;
+        }
+        // Токены пользователя достаются первым по порядку элементам, прошедшим лимит операции
+        int granted = byUser.tryAcquireUpTo(userId.toString(), passed);
+        for (int i = 0; i < waits.length; i++) {
+            if (waits[i] == 0) {
+                if (granted > 0) {
+                    granted--;
+                } else {
+                    waits[i] = byUser.getNanosPerToken();
+                }
+            }
+        }
+        return waits;
+    }
+
+    private static long check(RateLimiter byUser, RateLimiter byOperation, Long userId, String operationId) {
+        if (byUser != null) {
+            long wait = byUser.tryAcquire(userId.toString());
+            if (wait > 0) {
+                return wait;
+            }
+        }
+        if (byOperation != null && operationId != null) {
+            // Ключ включает пользователя: чужие запросы не расходуют лимит операции
+            return byOperation.tryAcquire(userId + ":" + operationId);
+        }
+        return 0;
+    }
+
+    public List<RateLimiter> getLimiters() {
+        List<RateLimiter> limiters = new ArrayList<>();
+        for (RateLimiter limiter : new RateLimiter[] {generateByUser, generateByOperation, validateByUser, validateByOperation}) {
+            if (limiter != null) {
+                limiters.add(limiter);
+            }
+        }
+        return limiters;
+    }
+}
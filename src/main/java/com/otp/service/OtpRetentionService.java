@@ -0,0 +1,154 @@
+package com.otp.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import com.otp.dao.OtpArchiveDao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Хранение закрытых OTP-кодов. В otp_codes остаются только активные и недавно
+ * закрытые коды; остальные порциями переносятся в секционированный по дням архив.
+ * Секции создаются заранее, а после окна хранения отсоединяются и удаляются,
+ * при необходимости предварительно выгружаясь в сжатый CSV.
+ */
+public class OtpRetentionService {
+    private static final Logger logger = LoggerFactory.getLogger(OtpRetentionService.class);
+
+    private final OtpArchiveDao archiveDao;
+    private final long hotMinutes;
+    private final int archiveDays;
+    private final int partitionsAhead;
+    private final int chunkSize;
+    private final long pauseMs;
+    private final long intervalMs;
+    private final boolean exportEnabled;
+    private final Path exportDir;
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder archivedCount = new LongAdder();
+    private final LongAdder droppedPartitions = new LongAdder();
+    private final LongAdder exportedRows = new LongAdder();
+
+    public OtpRetentionService(OtpArchiveDao archiveDao, Properties config) {
+        this.archiveDao = archiveDao;
+        this.hotMinutes = Long.parseLong(config.getProperty("otp.retention.hot_minutes", "60"));
+        this.archiveDays = Integer.parseInt(config.getProperty("otp.retention.archive_days", "30"));
+        this.partitionsAhead = Integer.parseInt(config.getProperty("otp.retention.partitions_ahead", "2"));
+        this.chunkSize = Integer.parseInt(config.getProperty("otp.retention.chunk_size", "1000"));
+        this.pauseMs = Long.parseLong(config.getProperty("otp.retention.pause_ms", "50"));
+        this.intervalMs = Long.parseLong(config.getProperty("otp.retention.interval_ms", "300000"));
+        this.exportEnabled = Boolean.parseBoolean(config.getProperty("otp.retention.export.enabled", "false"));
+        this.exportDir = Path.of(config.getProperty("otp.retention.export.dir", "archive"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "otp-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::run, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void run() {
+        try {
+            LocalDate today = LocalDate.now();
+            // Секции нужны на всё окно хранения: в архив попадают коды, созданные в его пределах
+            for (int day = -archiveDays; day <= partitionsAhead; day++) {
+                archiveDao.createPartition(today.plusDays(day));
+            }
+            archiveClosedCodes(today);
+            dropExpiredPartitions(today);
+        } catch (SQLException | RuntimeException e) {
+            // Непойманное исключение отменило бы все следующие запуски scheduleWithFixedDelay
+            logger.error("OTP retention run failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void archiveClosedCodes(LocalDate today) throws SQLException, InterruptedException {
+        LocalDateTime closedBefore = LocalDateTime.now().minusMinutes(hotMinutes);
+        LocalDateTime archiveFrom = today.minusDays(archiveDays).atStartOfDay();
+        long moved = 0;
+        int batch;
+        do {
+            batch = archiveDao.archiveBatch(closedBefore, archiveFrom, chunkSize);
+            moved += batch;
+            if (batch == chunkSize) {
+                Thread.sleep(pauseMs);
+            }
+        } while (batch == chunkSize);
+        archivedCount.add(moved);
+
+        int history;
+        do {
+            history = archiveDao.deleteHistoryBatch(archiveFrom, chunkSize);
+        } while (history == chunkSize);
+
+        if (moved > 0) {
+            logger.info("Moved {} closed OTP codes out of otp_codes", moved);
+        }
+    }
+
+    private void dropExpiredPartitions(LocalDate today) throws SQLException {
+        LocalDate oldestKept = today.minusDays(archiveDays);
+        for (LocalDate day : archiveDao.findPartitions()) {
+            if (!day.isBefore(oldestKept)) {
+                continue;
+            }
+            if (exportEnabled) {
+                try {
+                    export(day);
+                } catch (IOException | SQLException e) {
+                    // Без выгрузки секцию не удаляем, повторим в следующий проход
+                    logger.error("Failed to export OTP archive partition {}, keeping it", day, e);
+                    continue;
+                }
+            }
+            archiveDao.dropPartition(day);
+            droppedPartitions.increment();
+            logger.info("Dropped OTP archive partition {}", day);
+        }
+    }
+
+    /**
+     * Выгрузка во временный файл и атомарное переименование, чтобы не оставить обрезанный архив
+     */
+    private void export(LocalDate day) throws IOException, SQLException {
+        Files.createDirectories(exportDir);
+        Path target = exportDir.resolve("otp_codes_" + day + ".csv.gz");
+        Path temp = exportDir.resolve(target.getFileName() + ".tmp");
+        long rows;
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+            rows = archiveDao.exportPartition(day, out);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        exportedRows.add(rows);
+        logger.info("Exported {} rows of OTP archive partition {} to {}", rows, day, target);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    // Метрики архивации
+    public long getArchivedCount() { return archivedCount.sum(); }
+    public long getDroppedPartitionCount() { return droppedPartitions.sum(); }
+    public long getExportedRowCount() { return exportedRows.sum(); }
+}
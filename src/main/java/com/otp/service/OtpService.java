@@ -1,39 +1,73 @@
 package com.otp.service;
 
-import java.security.SecureRandom;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import com.otp.dao.OtpCodeDao;
-import com.otp.dao.OtpConfigDao;
 import com.otp.model.OtpCode;
-import com.otp.notification.NotificationService;
+import com.otp.notification.DeliveryPipeline;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class OtpService {
     private static final Logger logger = LoggerFactory.getLogger(OtpService.class);
+    private static final int MAX_OPERATION_ID_LENGTH = 100;
+    
+    public static final String BATCH_QUEUED = "QUEUED";
+    public static final String BATCH_ERROR = "ERROR";
+    
+    /**
+     * Элемент пакетной выдачи; deliveryMethod == null — канал не распознан
+     */
+    public record BatchGenerateItem(String operationId, OtpCode.DeliveryMethod deliveryMethod) {
+    }
+    
+    public record BatchValidateItem(String operationId, String code) {
+    }
+    
+    /**
+     * Результат по элементу пакета: QUEUED / ERROR для выдачи, ConsumeResult или ERROR для проверки
+     */
+    public record BatchItemResult(String operationId, String status, String error) {
+    }
     
     private final OtpCodeDao otpCodeDao;
-    private final OtpConfigDao otpConfigDao;
-    private final NotificationService notificationService;
-    private final SecureRandom secureRandom;
+    private final OtpConfigCache otpConfigCache;
+    private final DeliveryPipeline deliveryPipeline;
+    private final OtpCodeGenerator codeGenerator;
+    // Задан — коды вычисляются по HMAC и не хранятся в otp_codes (otp.mode=hmac)
+    private final HmacOtpEngine hmacOtpEngine;
+    
+    public OtpService(OtpCodeDao otpCodeDao, OtpConfigCache otpConfigCache, DeliveryPipeline deliveryPipeline,
+                      OtpCodeGenerator codeGenerator) {
+        this(otpCodeDao, otpConfigCache, deliveryPipeline, codeGenerator, null);
+    }
     
-    public OtpService(OtpCodeDao otpCodeDao, OtpConfigDao otpConfigDao, NotificationService notificationService) {
+    public OtpService(OtpCodeDao otpCodeDao, OtpConfigCache otpConfigCache, DeliveryPipeline deliveryPipeline,
+                      OtpCodeGenerator codeGenerator, HmacOtpEngine hmacOtpEngine) {
         this.otpCodeDao = otpCodeDao;
-        this.otpConfigDao = otpConfigDao;
-        this.notificationService = notificationService;
-        this.secureRandom = new SecureRandom();
+        this.otpConfigCache = otpConfigCache;
+        this.deliveryPipeline = deliveryPipeline;
+        this.codeGenerator = codeGenerator;
+        this.hmacOtpEngine = hmacOtpEngine;
     }
     
     public String generateOtp(Long userId, String operationId, OtpCode.DeliveryMethod deliveryMethod) throws SQLException {
         logger.info("Generating OTP for user {} with operation {}", userId, operationId);
         
  
+        // Один снимок конфигурации из памяти на весь запрос
+        OtpConfigCache.Snapshot config = otpConfigCache.current();
+        
         // Генерируем код
-        String code = generateSecureCode(otpConfigDao.getConfig().getCodeLength());
+        String code = hmacOtpEngine != null
+            ? hmacOtpEngine.generate(userId, operationId, config.codeLength())
+            : codeGenerator.generate(config.codeLength());
         
         // Создаем OTP запись
         OtpCode otpCode = new OtpCode();
@@ -42,69 +76,178 @@ public class OtpService {
         otpCode.setCode(code);
         otpCode.setStatus(OtpCode.Status.ACTIVE);
         otpCode.setDeliveryMethod(deliveryMethod);
-        otpCode.setCreatedAt(LocalDateTime.now());
-        otpCode.setExpiresAt(LocalDateTime.now().plusMinutes(otpConfigDao.getConfig().getCodeLength()));
-        
-        // Удаляем старый код для этой операции если есть
-        otpCodeDao.findByOperationId(operationId).ifPresent(existing -> {
-            try {
-                otpCodeDao.updateStatus(existing.getId(), OtpCode.Status.EXPIRED);
-            } catch (SQLException e) {
-                logger.error("Failed to expire old OTP code", e);
-            }
-        });
+        otpCode.setDeliveryStatus(OtpCode.DeliveryStatus.PENDING);
+        LocalDateTime now = LocalDateTime.now();
+        otpCode.setCreatedAt(now);
+        otpCode.setExpiresAt(now.plusMinutes(config.expiryMinutes()));
         
-        // Сохраняем новый код
-        otpCodeDao.save(otpCode);
+        // Новый код или перевыпуск для той же операции — один запрос; в режиме HMAC код не сохраняется
+        if (hmacOtpEngine == null && !otpCodeDao.upsert(otpCode)) {
+            throw new OperationOwnershipException(operationId);
+        }
         
-        // Отправляем код
-        notificationService.sendOtp(userId, code, deliveryMethod);
+        // Ставим код в очередь доставки, не дожидаясь ответа шлюза
+        if (!deliveryPipeline.enqueue(otpCode)) {
+            throw new DeliveryQueueFullException(operationId);
+        }
         
-        logger.info("OTP generated and sent for operation {}", operationId);
+        logger.info("OTP generated and queued for delivery for operation {}", operationId);
         return operationId;
     }
     
-    public boolean validateOtp(String operationId, String code) throws SQLException {
+    public boolean validateOtp(Long userId, String operationId, String code) throws SQLException {
+        return consumeOtp(userId, operationId, code) == OtpCode.ConsumeResult.VALID;
+    }
+    
+    /**
+     * Проверка и погашение кода: один запрос к БД или, в режиме HMAC, пересчёт кода без БД
+     */
+    public OtpCode.ConsumeResult consumeOtp(Long userId, String operationId, String code) throws SQLException {
         logger.info("Validating OTP for operation {}", operationId);
         
-        Optional<OtpCode> otpOpt = otpCodeDao.findByOperationId(operationId);
-        if (otpOpt.isEmpty()) {
-            logger.warn("OTP not found for operation {}", operationId);
-            return false;
+        OtpCode.ConsumeResult result;
+        if (hmacOtpEngine != null) {
+            OtpConfigCache.Snapshot config = otpConfigCache.current();
+            result = hmacOtpEngine.validate(userId, operationId, code == null ? null : code.trim(),
+                config.codeLength(), config.expiryMinutes());
+        } else {
+            result = otpCodeDao.consume(userId, operationId, codeGenerator.normalize(code));
+        }
+        switch (result) {
+            case VALID:
+                logger.info("OTP validated successfully for operation {}", operationId);
+                break;
+            case NOT_FOUND:
+                logger.warn("OTP not found for operation {}", operationId);
+                break;
+            case NOT_ACTIVE:
+                logger.warn("OTP is not active for operation {}", operationId);
+                break;
+            case EXPIRED:
+                logger.warn("OTP expired for operation {}", operationId);
+                break;
+            case INVALID_CODE:
+                logger.warn("Invalid OTP code for operation {}", operationId);
+                break;
+            case TOO_MANY_ATTEMPTS:
+                logger.warn("Too many failed attempts, OTP invalidated for operation {}", operationId);
+                break;
+        }
+        return result;
+    }
+    
+    /**
+     * Пакетная выдача: один запрос к БД на весь пакет, доставка через очереди каналов
+     */
+    public List<BatchItemResult> generateBatch(Long userId, List<BatchGenerateItem> items) throws SQLException {
+        OtpConfigCache.Snapshot config = otpConfigCache.current();
+        LocalDateTime now = LocalDateTime.now();
+        
+        BatchItemResult[] results = new BatchItemResult[items.size()];
+        List<OtpCode> accepted = new ArrayList<>(items.size());
+        List<Integer> positions = new ArrayList<>(items.size());
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < items.size(); i++) {
+            BatchGenerateItem item = items.get(i);
+            String error = validateOperationId(item.operationId(), seen);
+            if (error == null && item.deliveryMethod() == null) {
+                error = "Invalid deliveryMethod";
+            }
+            if (error != null) {
+                results[i] = new BatchItemResult(item.operationId(), BATCH_ERROR, error);
+                continue;
+            }
+            
+            OtpCode otpCode = new OtpCode();
+            otpCode.setUserId(userId);
+            otpCode.setOperationId(item.operationId());
+            otpCode.setCode(hmacOtpEngine != null
+                ? hmacOtpEngine.generate(userId, item.operationId(), config.codeLength())
+                : codeGenerator.generate(config.codeLength()));
+            otpCode.setStatus(OtpCode.Status.ACTIVE);
+            otpCode.setDeliveryMethod(item.deliveryMethod());
+            otpCode.setDeliveryStatus(OtpCode.DeliveryStatus.PENDING);
+            otpCode.setCreatedAt(now);
+            otpCode.setExpiresAt(now.plusMinutes(config.expiryMinutes()));
+            accepted.add(otpCode);
+            positions.add(i);
         }
         
-        OtpCode otp = otpOpt.get();
+        Set<String> issued = hmacOtpEngine != null
+            ? null
+            : new HashSet<>(otpCodeDao.upsertBatch(accepted));
         
-        // Проверяем статус
-        if (otp.getStatus() != OtpCode.Status.ACTIVE) {
-            logger.warn("OTP is not active for operation {}", operationId);
-            return false;
+        int queued = 0;
+        for (int n = 0; n < accepted.size(); n++) {
+            OtpCode otpCode = accepted.get(n);
+            int i = positions.get(n);
+            if (issued != null && !issued.contains(otpCode.getOperationId())) {
+                results[i] = new BatchItemResult(otpCode.getOperationId(), BATCH_ERROR, "Operation belongs to another user");
+            } else if (!deliveryPipeline.enqueue(otpCode)) {
+                results[i] = new BatchItemResult(otpCode.getOperationId(), BATCH_ERROR, "Delivery queue is full");
+            } else {
+                results[i] = new BatchItemResult(otpCode.getOperationId(), BATCH_QUEUED, null);
+                queued++;
+            }
         }
         
-        // Проверяем срок действия
-        if (LocalDateTime.now().isAfter(otp.getExpiresAt())) {
-            otpCodeDao.updateStatus(otp.getId(), OtpCode.Status.EXPIRED);
-            logger.warn("OTP expired for operation {}", operationId);
-            return false;
+        logger.info("Batch OTP generation for user {}: {} of {} queued", userId, queued, items.size());
+        return List.of(results);
+    }
+    
+    /**
+     * Пакетная проверка: одно погашение на весь пакет (или пересчёт HMAC без БД)
+     */
+    public List<BatchItemResult> consumeBatch(Long userId, List<BatchValidateItem> items) throws SQLException {
+        BatchItemResult[] results = new BatchItemResult[items.size()];
+        List<String> operationIds = new ArrayList<>(items.size());
+        List<String> codes = new ArrayList<>(items.size());
+        List<Integer> positions = new ArrayList<>(items.size());
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < items.size(); i++) {
+            BatchValidateItem item = items.get(i);
+            String error = validateOperationId(item.operationId(), seen);
+            if (error == null && (item.code() == null || item.code().isBlank())) {
+                error = "Missing code";
+            }
+            if (error != null) {
+                results[i] = new BatchItemResult(item.operationId(), BATCH_ERROR, error);
+                continue;
+            }
+            operationIds.add(item.operationId());
+            codes.add(item.code());
+            positions.add(i);
         }
         
-        // Проверяем код
-        if (!otp.getCode().equals(code)) {
-            logger.warn("Invalid OTP code for operation {}", operationId);
-            return false;
+        List<OtpCode.ConsumeResult> consumed;
+        if (hmacOtpEngine != null) {
+            OtpConfigCache.Snapshot config = otpConfigCache.current();
+            consumed = new ArrayList<>(operationIds.size());
+            for (int n = 0; n < operationIds.size(); n++) {
+                consumed.add(hmacOtpEngine.validate(userId, operationIds.get(n), codes.get(n).trim(),
+                    config.codeLength(), config.expiryMinutes()));
+            }
+        } else {
+            codes.replaceAll(codeGenerator::normalize);
+            consumed = otpCodeDao.consumeBatch(userId, operationIds, codes);
         }
         
-        // Помечаем как использованный
-        otpCodeDao.updateStatus(otp.getId(), OtpCode.Status.USED);
-        logger.info("OTP validated successfully for operation {}", operationId);
-        return true;
+        for (int n = 0; n < consumed.size(); n++) {
+            results[positions.get(n)] = new BatchItemResult(operationIds.get(n), consumed.get(n).name(), null);
+        }
+        return List.of(results);
     }
     
-    private String generateSecureCode(int length) {
-        StringBuilder code = new StringBuilder();
-        for (int i = 0; i < length; i++) {
-            code.append(secureRandom.nextInt(10));
+    private static String validateOperationId(String operationId, Set<String> seen) {
+        if (operationId == null || operationId.isBlank()) {
+            return "Missing operationId";
+        }
+        if (operationId.length() > MAX_OPERATION_ID_LENGTH) {
+            return "operationId is too long";
+        }
+        if (!seen.add(operationId)) {
+            return "Duplicate operationId in batch";
         }
-        return code.toString();
+        return null;
     }
-}
+}
\ No newline at end of file
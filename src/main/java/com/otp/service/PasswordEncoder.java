@@ -1,44 +1,199 @@
 package com.otp.service;
 
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.otp.metrics.MetricsRegistry;
+import com.otp.metrics.Timer;
+
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+
+/**
+ * Хеширование паролей с префиксом алгоритма ({argon2}, {bcrypt}, {sha256}). Новые хеши
+ * строятся алгоритмом password.hash.algorithm, проверяются хеши любого известного
+ * алгоритма; старые хеши без префикса (salt$hash) — это один раунд SHA-256.
+ * needsRehash говорит, что хеш пора пересчитать (другой алгоритм или стоимость ниже текущей).
+ * Хеширование выполняется на отдельном ограниченном пуле потоков, чтобы всплеск входов
+ * не занимал все ядра; при переполнении очереди — RejectedExecutionException.
+ */
+public class PasswordEncoder implements AutoCloseable {
+    private static final Timer ENCODE_TIMER = MetricsRegistry.timer("password_hash_duration_seconds",
+        "Password hashing latency including queueing", "operation", "encode");
+    private static final Timer MATCHES_TIMER = MetricsRegistry.timer("password_hash_duration_seconds",
+        "Password hashing latency including queueing", "operation", "matches");
+
+    private final DelegatingPasswordEncoder delegate;
+    // null — хеширование в вызывающем потоке (threads=0)
+    private final ThreadPoolExecutor pool;
+    private final long timeoutMs;
+    private final LongAdder rejected = new LongAdder();
+
+    public PasswordEncoder(Properties config) {
+        String algorithm = config.getProperty("password.hash.algorithm", "argon2");
+        Argon2PasswordEncoder argon2 = new Argon2PasswordEncoder(16, 32,
+            Integer.parseInt(config.getProperty("password.argon2.parallelism", "1")),
+            Integer.parseInt(config.getProperty("password.argon2.memory_kb", "19456")),
+            Integer.parseInt(config.getProperty("password.argon2.iterations", "2")));
+        BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder(
+            Integer.parseInt(config.getProperty("password.bcrypt.strength", "12")));
+        LegacySha256Encoder sha256 = new LegacySha256Encoder();
+
+        Map<String, org.springframework.security.crypto.password.PasswordEncoder> encoders =
+            Map.of("argon2", argon2, "bcrypt", bcrypt, "sha256", sha256);
+        if (!encoders.containsKey(algorithm)) {
+            throw new IllegalArgumentException("Unknown password.hash.algorithm: " + algorithm);
+        }
+        this.delegate = new DelegatingPasswordEncoder(algorithm, encoders);
+        // Хеши, сохранённые до появления префиксов
+        this.delegate.setDefaultPasswordEncoderForMatches(sha256);
+
+        int threads = Integer.parseInt(config.getProperty("password.hash.threads",
+            Integer.toString(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+        int queueSize = Integer.parseInt(config.getProperty("password.hash.queue_size", "64"));
+        this.timeoutMs = Long.parseLong(config.getProperty("password.hash.timeout_ms", "5000"));
+        if (threads > 0) {
+            AtomicInteger counter = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread thread = new Thread(r, "password-hash-" + counter.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        } else {
+            this.pool = null;
+        }
+    }
 
-public class PasswordEncoder {
-    private static final SecureRandom random = new SecureRandom();
-    
     public String encode(String password) {
+        long start = System.nanoTime();
         try {
-            byte[] salt = new byte[16];
-            random.nextBytes(salt);
-            
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(salt);
-            byte[] hashedPassword = md.digest(password.getBytes());
-            
-            return Base64.getEncoder().encodeToString(salt) + "$" +
-                   Base64.getEncoder().encodeToString(hashedPassword);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Password hashing failed", e);
+            return run(() -> delegate.encode(password));
+        } finally {
+            ENCODE_TIMER.recordSince(start);
         }
     }
-    
+
     public boolean matches(String password, String encodedPassword) {
+        if (password == null || encodedPassword == null) {
+            return false;
+        }
+        long start = System.nanoTime();
         try {
+            return run(() -> delegate.matches(password, encodedPassword));
+        } catch (IllegalArgumentException e) {
+            // Неизвестный префикс или повреждённый хеш
+            return false;
+        } finally {
+            MATCHES_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Хеш построен не текущим алгоритмом или с меньшей стоимостью — пересчитать при входе
+     */
+    public boolean needsRehash(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    private <T> T run(Callable<T> task) {
+        if (pool == null) {
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        Future<T> future;
+        try {
+            future = pool.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            rejected.increment();
+            throw new RejectedExecutionException("Password hashing timed out", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while hashing password", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    // Метрики пула хеширования
+    public int getQueueDepth() { return pool == null ? 0 : pool.getQueue().size(); }
+    public int getActiveCount() { return pool == null ? 0 : pool.getActiveCount(); }
+    public long getRejectedCount() { return rejected.sum(); }
+
+    /**
+     * Прежний формат: base64(salt) $ base64(SHA-256(salt || password)), пароль в UTF-8
+     */
+    static final class LegacySha256Encoder implements org.springframework.security.crypto.password.PasswordEncoder {
+        private static final SecureRandom random = new SecureRandom();
+
+        @Override
+        public String encode(CharSequence rawPassword) {
+            byte[] salt = new byte[16];
+            random.nextBytes(salt);
+            return Base64.getEncoder().encodeToString(salt) + "$" +
+                   Base64.getEncoder().encodeToString(digest(salt, rawPassword));
+        }
+
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
             String[] parts = encodedPassword.split("\\$");
-            if (parts.length != 2) return false;
-            
+            if (parts.length != 2) {
+                return false;
+            }
             byte[] salt = Base64.getDecoder().decode(parts[0]);
             byte[] storedHash = Base64.getDecoder().decode(parts[1]);
-            
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(salt);
-            byte[] testHash = md.digest(password.getBytes());
-            
-            return MessageDigest.isEqual(storedHash, testHash);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Password verification failed", e);
+            return MessageDigest.isEqual(storedHash, digest(salt, rawPassword));
+        }
+
+        private static byte[] digest(byte[] salt, CharSequence rawPassword) {
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-256");
+                md.update(salt);
+                return md.digest(rawPassword.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,144 @@
+package com.otp.service;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.otp.dao.JwtTokenDao;
+import com.otp.model.JwtToken;
+import com.otp.util.BloomFilter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Реестр отозванных токенов в памяти. Проверка — фильтр Блума, и только при
+ * положительном ответе точная карта jti → срок действия. Записи живут, пока жив
+ * сам токен. Отзывы, сделанные другими экземплярами сервиса, подтягиваются из
+ * jwt_tokens инкрементально по revoked_at.
+ */
+public class TokenRevocationService {
+    private static final Logger logger = LoggerFactory.getLogger(TokenRevocationService.class);
+
+    private final JwtTokenDao jwtTokenDao;
+    private final long refreshIntervalMs;
+    private final long overlapMs;
+    private final int expectedRevocations;
+    private final double falsePositiveRate;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<String, LocalDateTime> revoked = new ConcurrentHashMap<>();
+    private volatile BloomFilter bloomFilter;
+    // Меняется только потоком обновления
+    private LocalDateTime watermark = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder bloomPositives = new LongAdder();
+    private final LongAdder revokedHits = new LongAdder();
+
+    public TokenRevocationService(JwtTokenDao jwtTokenDao, Properties config) {
+        this.jwtTokenDao = jwtTokenDao;
+        this.refreshIntervalMs = Long.parseLong(config.getProperty("jwt.revocation.refresh_interval_ms", "2000"));
+        this.overlapMs = Long.parseLong(config.getProperty("jwt.revocation.refresh_overlap_ms", "5000"));
+        this.expectedRevocations = Integer.parseInt(config.getProperty("jwt.revocation.bloom.expected", "100000"));
+        this.falsePositiveRate = Double.parseDouble(config.getProperty("jwt.revocation.bloom.fpp", "0.001"));
+        this.bloomFilter = new BloomFilter(expectedRevocations, falsePositiveRate);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "jwt-revocation-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Первичная загрузка и периодическое обновление
+     */
+    public void start() throws SQLException {
+        refresh();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (SQLException e) {
+                logger.warn("Failed to refresh revoked JWT tokens", e);
+            }
+        }, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::prune, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public boolean isRevoked(String jti) {
+        checks.increment();
+        if (!bloomFilter.mightContain(jti)) {
+            return false;
+        }
+        bloomPositives.increment();
+        LocalDateTime expiresAt = revoked.get(jti);
+        if (expiresAt == null) {
+            return false;
+        }
+        revokedHits.increment();
+        return true;
+    }
+
+    /**
+     * Отзыв действует в этом экземпляре сразу, в остальных — после ближайшего обновления
+     */
+    public void revoke(JwtToken token) throws SQLException {
+        jwtTokenDao.revoke(token);
+        add(token.getJti(), token.getExpiresAt());
+    }
+
+    private void refresh() throws SQLException {
+        // Перекрытие окна: транзакции фиксируются не в порядке revoked_at, повторное чтение безвредно
+        List<JwtToken> fresh = jwtTokenDao.findRevokedSince(watermark.minusNanos(overlapMs * 1_000_000));
+        for (JwtToken token : fresh) {
+            add(token.getJti(), token.getExpiresAt());
+            if (token.getRevokedAt().isAfter(watermark)) {
+                watermark = token.getRevokedAt();
+            }
+        }
+    }
+
+    private synchronized void add(String jti, LocalDateTime expiresAt) {
+        revoked.put(jti, expiresAt);
+        bloomFilter.put(jti);
+    }
+
+    /**
+     * Убираем истёкшие токены и пересобираем фильтр, чтобы он не забивался
+     */
+    private void prune() {
+        LocalDateTime now = LocalDateTime.now();
+        synchronized (this) {
+            int before = revoked.size();
+            revoked.values().removeIf(expiresAt -> expiresAt.isBefore(now));
+            BloomFilter rebuilt = new BloomFilter(Math.max(expectedRevocations, revoked.size() * 2), falsePositiveRate);
+            revoked.keySet().forEach(rebuilt::put);
+            bloomFilter = rebuilt;
+            if (before != revoked.size()) {
+                logger.debug("Pruned {} expired revoked tokens", before - revoked.size());
+            }
+        }
+        try {
+            jwtTokenDao.deleteExpired();
+        } catch (SQLException e) {
+            logger.warn("Failed to delete expired JWT tokens", e);
+        }
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    // Метрики реестра
+    public int getRevokedCount() { return revoked.size(); }
+    public long getCheckCount() { return checks.sum(); }
+    public long getBloomPositiveCount() { return bloomPositives.sum(); }
+    public long getRevokedHitCount() { return revokedHits.sum(); }
+}
@@ -0,0 +1,129 @@
+package com.otp.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Маркерные корзины по ключу (IP, userId, operationId). Корзина, к которой не обращались
+ * дольше времени полного пополнения, заведомо полна и удаляется без потери состояния;
+ * чистка идёт попутно с запросами, не чаще раза в такое же время. Если ключей больше
+ * maxKeys, чистка запускается чаще, но не чаще раза в секунду; между чистками запросы
+ * с новыми ключами сразу отклоняются — память и время ограничены и при переборе ключей.
+ */
+public class RateLimiter {
+    private static final long OVERFLOW_SWEEP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String name;
+    private final double capacity;
+    private final double ratePerSecond;
+    private final int maxKeys;
+    private final long refillNanos;
+    private final long overflowSweepNanos;
+
+    private final Map<String, Entry> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweepNanos = new AtomicLong(System.nanoTime());
+
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder overflowCount = new LongAdder();
+
+    public RateLimiter(String name, double capacity, double ratePerSecond, int maxKeys) {
+        if (capacity <= 0 || ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Capacity and rate must be positive");
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.ratePerSecond = ratePerSecond;
+        this.maxKeys = maxKeys;
+        this.refillNanos = (long) (capacity / ratePerSecond * TimeUnit.SECONDS.toNanos(1));
+        this.overflowSweepNanos = Math.min(refillNanos, OVERFLOW_SWEEP_NANOS);
+    }
+
+    /**
+     * 0 — запрос разрешён, иначе через сколько наносекунд можно повторить
+     */
+    public long tryAcquire(String key) {
+        Entry entry = entryFor(key);
+        if (entry == null) {
+            rejectedCount.increment();
+            return refillNanos;
+        }
+        long wait = entry.bucket.tryAcquire();
+        if (wait > 0) {
+            rejectedCount.increment();
+        }
+        return wait;
+    }
+
+    /**
+     * Забрать до permits токенов по ключу (пакетные запросы: токен на элемент).
+     * Возвращает число выданных; остальные считаются отклонёнными.
+     */
+    public int tryAcquireUpTo(String key, int permits) {
+        Entry entry = entryFor(key);
+        int granted = entry == null ? 0 : entry.bucket.tryAcquireUpTo(permits);
+        if (granted < permits) {
+            rejectedCount.add(permits - granted);
+        }
+        return granted;
+    }
+
+    /**
+     * Время пополнения одного токена — подсказка для Retry-After при частичном отказе
+     */
+    public long getNanosPerToken() {
+        return (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+    }
+
+    /**
+     * Корзина ключа; null — ключей больше maxKeys, запрос отклоняется
+     */
+    private Entry entryFor(String key) {
+        long now = System.nanoTime();
+        sweepIfDue(now, refillNanos);
+
+        Entry entry = buckets.get(key);
+        if (entry == null) {
+            if (buckets.size() >= maxKeys) {
+                // Полный проход по карте на каждый новый ключ дал бы O(maxKeys) на запрос
+                sweepIfDue(now, overflowSweepNanos);
+                if (buckets.size() >= maxKeys) {
+                    overflowCount.increment();
+                    return null;
+                }
+            }
+            entry = buckets.computeIfAbsent(key, k -> new Entry(new TokenBucket(capacity, ratePerSecond)));
+        }
+        entry.lastAccessNanos = now;
+        return entry;
+    }
+
+    private void sweepIfDue(long now, long intervalNanos) {
+        long last = lastSweepNanos.get();
+        if (now - last >= intervalNanos && lastSweepNanos.compareAndSet(last, now)) {
+            sweep(now);
+        }
+    }
+
+    private void sweep(long now) {
+        buckets.values().removeIf(entry -> now - entry.lastAccessNanos > refillNanos);
+    }
+
+    // Метрики ограничителя
+    public String getName() { return name; }
+    public int getKeyCount() { return buckets.size(); }
+    public long getRejectedCount() { return rejectedCount.sum(); }
+    public long getOverflowCount() { return overflowCount.sum(); }
+
+    private static final class Entry {
+        private final TokenBucket bucket;
+        private volatile long lastAccessNanos;
+
+        private Entry(TokenBucket bucket) {
+            this.bucket = bucket;
+            this.lastAccessNanos = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.otp.util;
+
+/**
+ * Маркерная корзина: capacity токенов, пополнение со скоростью ratePerSecond.
+ * Время ожидания возвращается в наносекундах, чтобы вызывающий сам решал,
+ * ждать ему или отказать.
+ */
+public class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(double capacity, double ratePerSecond) {
+        if (capacity <= 0 || ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Capacity and rate must be positive");
+        }
+        this.capacity = capacity;
+        this.tokensPerNano = ratePerSecond / 1_000_000_000.0;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Забрать токен, если он есть. Возвращает 0 при успехе, иначе через сколько наносекунд появится токен.
+     */
+    public synchronized long tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * Забрать до permits токенов — сколько есть целых. Возвращает число выданных.
+     */
+    public synchronized int tryAcquireUpTo(int permits) {
+        refill();
+        int granted = (int) Math.min(permits, Math.floor(tokens));
+        if (granted > 0) {
+            tokens -= granted;
+        }
+        return Math.max(granted, 0);
+    }
+
+    /**
+     * Забрать токен в долг: возвращает, сколько наносекунд нужно подождать до его использования.
+     * Последовательные резервации выстраиваются в очередь во времени. Если ждать пришлось бы
+     * дольше maxWaitNanos, токен не забирается и возвращается -1 — долг корзины ограничен.
+     */
+    public synchronized long reserve(long maxWaitNanos) {
+        refill();
+        long wait = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+        if (wait > maxWaitNanos) {
+            return -1;
+        }
+        tokens -= 1;
+        return wait;
+    }
+
+    /**
+     * Вернуть токен, взятый через reserve, если он не понадобился
+     */
+    public synchronized void cancelReservation() {
+        refill();
+        tokens = Math.min(capacity, tokens + 1);
+    }
+
+    /**
+     * Корзина полна и не имеет долгов — её можно удалить из кэша без потери состояния
+     */
+    public synchronized boolean isFull() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        long elapsed = now - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+            lastRefillNanos = now;
+        }
+    }
+}
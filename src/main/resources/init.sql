@@ -26,13 +26,73 @@ CREATE TABLE IF NOT EXISTS public.otp_codes (
     delivery_method VARCHAR(20) NOT NULL CHECK (delivery_method IN ('SMS', 'EMAIL', 'TELEGRAM', 'FILE')),
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     expires_at TIMESTAMP NOT NULL,
-    used_at TIMESTAMP
+    used_at TIMESTAMP,
+    delivery_status VARCHAR(12) NOT NULL DEFAULT 'PENDING' CHECK (delivery_status IN ('PENDING', 'SENT', 'RETRYING', 'DEAD_LETTER')),
+    delivery_attempts INTEGER NOT NULL DEFAULT 0,
+    delivery_error VARCHAR(500),
+    delivered_at TIMESTAMP,
+    failed_attempts INTEGER NOT NULL DEFAULT 0
 );
 
+-- Статус доставки для таблиц, созданных до появления очереди доставки
+ALTER TABLE otp_codes ADD COLUMN IF NOT EXISTS delivery_status VARCHAR(12) NOT NULL DEFAULT 'PENDING'
+    CHECK (delivery_status IN ('PENDING', 'SENT', 'RETRYING', 'DEAD_LETTER'));
+ALTER TABLE otp_codes ADD COLUMN IF NOT EXISTS delivery_attempts INTEGER NOT NULL DEFAULT 0;
+ALTER TABLE otp_codes ADD COLUMN IF NOT EXISTS delivery_error VARCHAR(500);
+ALTER TABLE otp_codes ADD COLUMN IF NOT EXISTS delivered_at TIMESTAMP;
+-- Число неверных попыток проверки; на пределе код гасится
+ALTER TABLE otp_codes ADD COLUMN IF NOT EXISTS failed_attempts INTEGER NOT NULL DEFAULT 0;
+
 -- Создание индексов
 CREATE INDEX IF NOT EXISTS idx_otp_codes_user_id ON otp_codes(user_id);
 CREATE INDEX IF NOT EXISTS idx_otp_codes_status ON otp_codes(status);
 CREATE INDEX IF NOT EXISTS idx_otp_codes_expires_at ON otp_codes(expires_at);
+-- Частичный индекс только по активным кодам: по нему истекают просроченные коды
+CREATE INDEX IF NOT EXISTS idx_otp_codes_active_expires ON otp_codes(expires_at) WHERE status = 'ACTIVE';
+CREATE INDEX IF NOT EXISTS idx_otp_codes_delivery_pending ON otp_codes(id) WHERE delivery_status IN ('PENDING', 'RETRYING');
+
+-- Коды, заменённые перевыпуском для той же операции (otp.history.enabled)
+CREATE TABLE IF NOT EXISTS public.otp_code_history (
+    id BIGSERIAL PRIMARY KEY,
+    otp_code_id INTEGER NOT NULL,
+    user_id INTEGER NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    operation_id VARCHAR(100) NOT NULL,
+    code VARCHAR(8) NOT NULL,
+    status VARCHAR(10) NOT NULL,
+    delivery_method VARCHAR(20) NOT NULL,
+    delivery_status VARCHAR(12) NOT NULL,
+    delivery_attempts INTEGER NOT NULL,
+    created_at TIMESTAMP,
+    expires_at TIMESTAMP NOT NULL,
+    used_at TIMESTAMP,
+    superseded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS idx_otp_code_history_operation_id ON otp_code_history(operation_id);
+CREATE INDEX IF NOT EXISTS idx_otp_code_history_superseded_at ON otp_code_history(superseded_at);
+
+-- Архив закрытых кодов по дням created_at. Сама otp_codes не секционируется:
+-- уникальность operation_id (ON CONFLICT при выдаче кода) на секционированной
+-- таблице потребовала бы ключа секционирования в ограничении.
+-- Секции создаёт и удаляет OtpRetentionService.
+CREATE TABLE IF NOT EXISTS public.otp_codes_archive (
+    id INTEGER NOT NULL,
+    user_id INTEGER NOT NULL,
+    operation_id VARCHAR(100) NOT NULL,
+    code VARCHAR(8) NOT NULL,
+    status VARCHAR(10) NOT NULL,
+    delivery_method VARCHAR(20) NOT NULL,
+    created_at TIMESTAMP NOT NULL,
+    expires_at TIMESTAMP NOT NULL,
+    used_at TIMESTAMP,
+    delivery_status VARCHAR(12) NOT NULL,
+    delivery_attempts INTEGER NOT NULL,
+    delivered_at TIMESTAMP,
+    archived_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+) PARTITION BY RANGE (created_at);
+
+CREATE INDEX IF NOT EXISTS idx_otp_codes_archive_operation_id ON otp_codes_archive(operation_id);
+CREATE INDEX IF NOT EXISTS idx_otp_codes_archive_user_id ON otp_codes_archive(user_id);
 
 CREATE TABLE IF NOT EXISTS public.jwt_tokens (
     id SERIAL PRIMARY KEY,
@@ -49,6 +109,10 @@ CREATE INDEX IF NOT EXISTS idx_jwt_tokens_user_id ON jwt_tokens(user_id);
 CREATE INDEX IF NOT EXISTS idx_jwt_tokens_jti ON jwt_tokens(jti);
 CREATE INDEX IF NOT EXISTS idx_jwt_tokens_expires_at ON jwt_tokens(expires_at);
 
+-- Момент отзыва токена; по нему экземпляры сервиса инкрементально подтягивают отзывы
+ALTER TABLE public.jwt_tokens ADD COLUMN IF NOT EXISTS revoked_at TIMESTAMP;
+CREATE INDEX IF NOT EXISTS idx_jwt_tokens_revoked_at ON jwt_tokens(revoked_at) WHERE revoked;
+
 -- Вставка начальной конфигурации
 INSERT INTO public.otp_config (id, code_length, expiry_minutes) 
 VALUES (1, 6, 5) 
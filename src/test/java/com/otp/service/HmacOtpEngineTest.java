@@ -0,0 +1,149 @@
+package com.otp.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Properties;
+
+import com.otp.model.OtpCode.ConsumeResult;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class HmacOtpEngineTest {
+    private static final int DIGITS = 6;
+    // Шаг 30 с, срок 1 мин — окно действия 2 шага после шага выдачи
+    private static final Duration STEP = Duration.ofSeconds(30);
+    private static final int EXPIRY_MINUTES = 1;
+    private static final int MAX_FAILED_ATTEMPTS = 5;
+
+    private MutableClock clock;
+    private HmacOtpEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        // Начало шага, чтобы сдвиги на целое число шагов были точными
+        clock = new MutableClock(Instant.ofEpochSecond(1_700_000_010L));
+        Properties config = new Properties();
+        config.setProperty("otp.hmac.secret", "test-hmac-master-secret-at-least-32-chars");
+        config.setProperty("otp.hmac.step_seconds", Long.toString(STEP.getSeconds()));
+        config.setProperty("otp.validate.max_failed_attempts", Integer.toString(MAX_FAILED_ATTEMPTS));
+        engine = new HmacOtpEngine(config, clock);
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.stop();
+    }
+
+    @Test
+    void sameStepGivesSameCode() {
+        String first = engine.generate(1L, "op-1", DIGITS);
+        clock.advance(STEP.minusSeconds(1));
+
+        assertThat(engine.generate(1L, "op-1", DIGITS))
+            .isEqualTo(first)
+            .hasSize(DIGITS)
+            .containsOnlyDigits();
+    }
+
+    @Test
+    void codeIsValidOnceThenReplayIsRejected() {
+        String code = engine.generate(1L, "op-1", DIGITS);
+
+        assertThat(validate(1L, "op-1", code)).isEqualTo(ConsumeResult.VALID);
+        assertThat(validate(1L, "op-1", code)).isEqualTo(ConsumeResult.NOT_ACTIVE);
+    }
+
+    @Test
+    void codeIsValidUntilEndOfWindowAndExpiredJustPastIt() {
+        String lastStepCode = engine.generate(1L, "op-last", DIGITS);
+        String expiredCode = engine.generate(1L, "op-expired", DIGITS);
+
+        clock.advance(STEP.multipliedBy(2));
+        assertThat(validate(1L, "op-last", lastStepCode)).isEqualTo(ConsumeResult.VALID);
+
+        clock.advance(STEP);
+        assertThat(validate(1L, "op-expired", expiredCode)).isEqualTo(ConsumeResult.EXPIRED);
+    }
+
+    @Test
+    void operationIsBlockedAfterMaxFailedAttempts() {
+        String code = engine.generate(1L, "op-1", DIGITS);
+        String wrong = wrongCode(code);
+
+        for (int i = 1; i < MAX_FAILED_ATTEMPTS; i++) {
+            assertThat(validate(1L, "op-1", wrong)).isEqualTo(ConsumeResult.INVALID_CODE);
+        }
+        assertThat(validate(1L, "op-1", wrong)).isEqualTo(ConsumeResult.TOO_MANY_ATTEMPTS);
+        // Верный код после блокировки уже не принимается
+        assertThat(validate(1L, "op-1", code)).isEqualTo(ConsumeResult.TOO_MANY_ATTEMPTS);
+    }
+
+    @Test
+    void usersAreIsolated() {
+        String firstUserCode = engine.generate(1L, "shared-op", DIGITS);
+        String secondUserCode = engine.generate(2L, "shared-op", DIGITS);
+        assertThat(secondUserCode).isNotEqualTo(firstUserCode);
+
+        // Код одного пользователя не подходит другому, а его неверные попытки не блокируют первого
+        for (int i = 0; i < MAX_FAILED_ATTEMPTS; i++) {
+            validate(2L, "shared-op", firstUserCode);
+        }
+        assertThat(validate(2L, "shared-op", secondUserCode)).isEqualTo(ConsumeResult.TOO_MANY_ATTEMPTS);
+        assertThat(validate(1L, "shared-op", firstUserCode)).isEqualTo(ConsumeResult.VALID);
+    }
+
+    @Test
+    void consumedOperationOfOneUserDoesNotAffectAnother() {
+        String firstUserCode = engine.generate(1L, "shared-op", DIGITS);
+        String secondUserCode = engine.generate(2L, "shared-op", DIGITS);
+
+        assertThat(validate(1L, "shared-op", firstUserCode)).isEqualTo(ConsumeResult.VALID);
+        assertThat(validate(2L, "shared-op", secondUserCode)).isEqualTo(ConsumeResult.VALID);
+    }
+
+    private ConsumeResult validate(long userId, String operationId, String code) {
+        return engine.validate(userId, operationId, code, DIGITS, EXPIRY_MINUTES);
+    }
+
+    private static String wrongCode(String code) {
+        char last = code.charAt(code.length() - 1);
+        return code.substring(0, code.length() - 1) + (char) ('0' + (last - '0' + 1) % 10);
+    }
+
+    /**
+     * Часы, которые тест сдвигает вручную
+     */
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        private MutableClock(Instant start) {
+            this.now = start;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}